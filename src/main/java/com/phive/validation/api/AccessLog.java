@@ -0,0 +1,120 @@
+package com.phive.validation.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import com.helger.json.IJsonObject;
+import com.helger.phive.result.json.PhiveJsonHelper;
+
+/**
+ * One structured entry per validated document on the
+ * <code>com.phive.validation.access</code> logger. The fields are passed as MDC
+ * values so the logback configurations can render them as separate JSON
+ * attributes. The logger is off by default; nothing is computed unless it is
+ * enabled via <code>ACCESS_LOG_LEVEL=INFO</code>.
+ */
+final class AccessLog
+{
+  static final String OUTCOME_VALID = "valid";
+  static final String OUTCOME_INVALID = "invalid";
+  static final String OUTCOME_ERROR = "error";
+  static final String OUTCOME_REJECTED = "rejected";
+  static final String OUTCOME_TIMEOUT = "timeout";
+
+  private static final Logger ACCESS_LOGGER = LoggerFactory.getLogger ("com.phive.validation.access");
+
+  private static final String [] KEYS = { "endpoint", "lane", "vesid", "sizeBytes", "durationMs", "outcome" };
+
+  private AccessLog ()
+  {}
+
+  static boolean isEnabled ()
+  {
+    return ACCESS_LOGGER.isInfoEnabled ();
+  }
+
+  /**
+   * Derives the outcome from a validation response: <code>valid</code>,
+   * <code>invalid</code> if the document was validated with errors,
+   * <code>timeout</code> if its time budget ran out, or <code>error</code> if
+   * the request failed before validation.
+   */
+  static String getOutcome (final IJsonObject response)
+  {
+    if (response.containsKey (DocumentValidator.JSON_TIMEOUT))
+      return OUTCOME_TIMEOUT;
+    if (isSuccess (response))
+      return OUTCOME_VALID;
+    return response.containsKey (PhiveJsonHelper.JSON_VES) ? OUTCOME_INVALID : OUTCOME_ERROR;
+  }
+
+  /**
+   * @return <code>true</code> if the response reports a successful validation.
+   *         A response without the success flag, e.g. of a failed request,
+   *         counts as unsuccessful.
+   */
+  static boolean isSuccess (final IJsonObject response)
+  {
+    return response.containsKey (PhiveJsonHelper.JSON_SUCCESS) && response.getAsBoolean (PhiveJsonHelper.JSON_SUCCESS);
+  }
+
+  /**
+   * The rule ID comes from the client and is logged before it is resolved.
+   * Control characters are written as <code>&#92;uXXXX</code> so a line break
+   * can neither split the JSON line nor forge further log entries; quotes and
+   * backslashes are escaped by the JSON pattern itself.
+   *
+   * @return the value with its control characters escaped, never
+   *         <code>null</code>.
+   */
+  static String escapeControlChars (final String value)
+  {
+    if (value == null)
+      return "";
+
+    StringBuilder escaped = null;
+    for (int i = 0; i < value.length (); i++)
+    {
+      final char c = value.charAt (i);
+      if (Character.isISOControl (c))
+      {
+        if (escaped == null)
+          escaped = new StringBuilder (value.length () + 8).append (value, 0, i);
+        escaped.append (String.format ("\\u%04x", Integer.valueOf (c)));
+      }
+      else
+        if (escaped != null)
+          escaped.append (c);
+    }
+    return escaped != null ? escaped.toString () : value;
+  }
+
+  static void log (final String endpoint,
+                   final String lane,
+                   final String vesid,
+                   final long sizeBytes,
+                   final long durationMs,
+                   final String outcome)
+  {
+    if (!ACCESS_LOGGER.isInfoEnabled ())
+      return;
+
+    try
+    {
+      MDC.put (KEYS[0], endpoint);
+      MDC.put (KEYS[1], lane);
+      final String escapedVesid = escapeControlChars (vesid);
+      MDC.put (KEYS[2], escapedVesid);
+      MDC.put (KEYS[3], Long.toString (sizeBytes));
+      MDC.put (KEYS[4], Long.toString (durationMs));
+      MDC.put (KEYS[5], outcome);
+      ACCESS_LOGGER.info ("{} {} {}", endpoint, escapedVesid, outcome);
+    }
+    finally
+    {
+      for (final String key : KEYS)
+        MDC.remove (key);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.phive.validation.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+/**
+ * Administrative endpoints. They are disabled unless the
+ * <code>ADMIN_TOKEN</code> environment variable is set, and every call must
+ * present that token in the <code>X-Admin-Token</code> header.
+ */
+final class AdminRequestHandler
+{
+  private static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+  private static final String ADMIN_TOKEN_ENV = System.getenv ("ADMIN_TOKEN");
+
+  private final ValidationRegistryHolder registryHolder;
+
+  AdminRequestHandler (final ValidationRegistryHolder registryHolder)
+  {
+    this.registryHolder = registryHolder;
+  }
+
+  static boolean isEnabled ()
+  {
+    return ADMIN_TOKEN_ENV != null && !ADMIN_TOKEN_ENV.trim ().isEmpty ();
+  }
+
+  /**
+   * @return <code>true</code> if the request carries the configured admin
+   *         token. Always <code>false</code> if admin endpoints are disabled.
+   */
+  static boolean isAuthorized (final HttpServletRequest request)
+  {
+    if (!isEnabled ())
+      return false;
+
+    final String presented = request.getHeader (ADMIN_TOKEN_HEADER);
+    if (presented == null)
+      return false;
+    return MessageDigest.isEqual (presented.getBytes (StandardCharsets.UTF_8),
+                                  ADMIN_TOKEN_ENV.trim ().getBytes (StandardCharsets.UTF_8));
+  }
+
+  IJsonObject handleReloadRequest (final HttpServletResponse response)
+  {
+    final boolean started = registryHolder.triggerReload ();
+    final IJsonObject json = registryHolder.buildStatusResponse ();
+    if (started)
+    {
+      response.setStatus (HttpServletResponse.SC_ACCEPTED);
+      json.add ("message", "Registry reload started");
+    }
+    else
+    {
+      response.setStatus (HttpServletResponse.SC_CONFLICT);
+      json.add ("message", "A registry reload is already running");
+    }
+    return json;
+  }
+
+  IJsonObject handleStatusRequest ()
+  {
+    return registryHolder.buildStatusResponse ();
+  }
+
+  static IJsonObject createUnauthorizedResponse ()
+  {
+    final IJsonObject json = new JsonObject ();
+    json.add ("success", false);
+    json.add ("message", "Missing or invalid " + ADMIN_TOKEN_HEADER + " header");
+    return json;
+  }
+}
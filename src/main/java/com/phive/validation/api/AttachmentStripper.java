@@ -0,0 +1,786 @@
+package com.phive.validation.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+
+import com.helger.base.location.ILocation;
+import com.helger.base.location.SimpleLocation;
+import com.helger.diagnostics.error.IError;
+import com.helger.diagnostics.error.SingleError;
+import com.helger.diagnostics.error.list.ErrorList;
+import com.helger.io.resource.IReadableResource;
+import com.helger.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.json.IJsonArray;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonArray;
+import com.helger.json.JsonObject;
+import com.helger.phive.api.EValidationBaseType;
+import com.helger.phive.api.executor.IValidationExecutor;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.xml.source.IValidationSourceXML;
+
+/**
+ * Replaces the base64 payloads of embedded attachments
+ * (<code>EmbeddedDocumentBinaryObject</code> in UBL,
+ * <code>AttachmentBinaryObject</code> in CII) by a short placeholder before
+ * the document is validated, so that multi-megabyte PDFs are neither parsed
+ * into the DOM nor copied through every Schematron layer. The document is
+ * streamed once; only the reduced copy is kept in memory. Size, MIME type,
+ * file name and SHA-256 checksum of every payload are reported in the
+ * <code>attachments</code> field.
+ * <p>
+ * The placeholder keeps the line breaks of the payload, so line numbers are
+ * unchanged. Columns after a payload on the same line are mapped back with
+ * {@link Result#adjust}, so all reported locations refer to the original
+ * document.
+ * <p>
+ * Configured via <code>ATTACHMENT_MODE</code>: <code>off</code> (default) or
+ * <code>strip</code>; <code>validate</code> is accepted as an alias of
+ * <code>strip</code>. A payload that is not valid base64 is reported as an
+ * error of the XML Schema layer, which would have rejected the original
+ * document as well. Documents in encodings that are not ASCII compatible, or
+ * with payloads containing entity references or markup, are validated
+ * unchanged.
+ */
+final class AttachmentStripper
+{
+  static final String JSON_ATTACHMENTS = "attachments";
+
+  static final String MODE_OFF = "off";
+  static final String MODE_STRIP = "strip";
+  /** Former mode that reported invalid payloads; they are now always reported. */
+  static final String MODE_VALIDATE = "validate";
+
+  private static final String MODE = parseMode (System.getenv ("ATTACHMENT_MODE"));
+
+  private static final Set<String> ELEMENT_NAMES = Set.of ("EmbeddedDocumentBinaryObject", "AttachmentBinaryObject");
+
+  /** Valid base64 so the XML Schema type of the element is still satisfied. */
+  static final byte [] PLACEHOLDER = "cGhpdmU6YXR0YWNobWVudC1yZW1vdmVk".getBytes (StandardCharsets.US_ASCII);
+
+  private static final Pattern ATTRIBUTE = Pattern.compile ("\\s(mimeCode|filename)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+  private static final Pattern ENCODING = Pattern.compile ("encoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+
+  private final Logger logger;
+
+  AttachmentStripper (final Logger logger)
+  {
+    this.logger = logger;
+  }
+
+  static boolean isEnabled ()
+  {
+    return MODE_STRIP.equals (MODE);
+  }
+
+  private static String parseMode (final String value)
+  {
+    if (value == null || value.isBlank ())
+      return MODE_OFF;
+    final String mode = value.trim ().toLowerCase (Locale.ROOT);
+    return MODE_STRIP.equals (mode) || MODE_VALIDATE.equals (mode) ? MODE_STRIP : MODE_OFF;
+  }
+
+  /** One replaced payload, located at its first character in the original document. */
+  static final class Attachment
+  {
+    private final String elementName;
+    private final int line;
+    private final int column;
+    private final String mimeCode;
+    private final String filename;
+    private final long base64Length;
+    private final long sizeBytes;
+    private final String sha256;
+    private final String base64Error;
+
+    Attachment (final String elementName,
+                final int line,
+                final int column,
+                final String mimeCode,
+                final String filename,
+                final PayloadDecoder decoder)
+    {
+      this.elementName = elementName;
+      this.line = line;
+      this.column = column;
+      this.mimeCode = mimeCode;
+      this.filename = filename;
+      this.base64Length = decoder.length;
+      this.sizeBytes = decoder.size;
+      this.sha256 = decoder.error == null ? HexFormat.of ().formatHex (decoder.digest.digest ()) : null;
+      this.base64Error = decoder.error;
+    }
+
+    String getSha256 ()
+    {
+      return sha256;
+    }
+
+    long getSizeBytes ()
+    {
+      return sizeBytes;
+    }
+
+    String getBase64Error ()
+    {
+      return base64Error;
+    }
+
+    private IJsonObject getAsJson ()
+    {
+      final IJsonObject json = new JsonObject ();
+      json.add ("element", elementName);
+      json.add ("line", line);
+      json.add ("column", column);
+      if (mimeCode != null)
+        json.add ("mimeCode", mimeCode);
+      if (filename != null)
+        json.add ("filename", filename);
+      json.add ("base64Length", base64Length);
+      json.add ("validBase64", base64Error == null);
+      if (base64Error == null)
+      {
+        json.add ("sizeBytes", sizeBytes);
+        json.add ("sha256", sha256);
+      }
+      else
+        json.add ("base64Error", base64Error);
+      return json;
+    }
+  }
+
+  /** The reduced document and what is needed to map results back to the original. */
+  static final class Result
+  {
+    private final String resourceID;
+    private final byte [] content;
+    private final List<Attachment> attachments;
+    /** Per line: pairs of (first column in the reduced document, columns to add). */
+    private final Map<Integer, List<int []>> columnShifts;
+
+    private Result (final String resourceID,
+                    final byte [] content,
+                    final List<Attachment> attachments,
+                    final Map<Integer, List<int []>> columnShifts)
+    {
+      this.resourceID = resourceID;
+      this.content = content;
+      this.attachments = attachments;
+      this.columnShifts = columnShifts;
+    }
+
+    List<Attachment> getAttachments ()
+    {
+      return attachments;
+    }
+
+    int getContentLength ()
+    {
+      return content.length;
+    }
+
+    /** Keeps the path of the original so that error locations name it. */
+    IReadableResource getAsResource ()
+    {
+      return new ReadableResourceByteArray (resourceID, content, false);
+    }
+
+    /**
+     * Maps the error locations of a layer back to the original document and
+     * adds invalid payloads to the first XML Schema layer of the set, or to its
+     * first layer if it has none, so that a document is not valid only because
+     * its broken payload was replaced.
+     */
+    ValidationResult adjust (final IValidationExecutorSet<IValidationSourceXML> executors,
+                             final IValidationExecutor<IValidationSourceXML> executor,
+                             final ValidationResult result)
+    {
+      final boolean addPayloadErrors = executor == getPayloadErrorLayer (executors);
+      if (result.isSkipped () || (columnShifts.isEmpty () && !addPayloadErrors))
+        return result;
+
+      final ErrorList errorList = new ErrorList ();
+      boolean changed = false;
+      for (final IError error : result.getErrorList ())
+      {
+        final IError mapped = mapLocation (error);
+        changed |= mapped != error;
+        errorList.add (mapped);
+      }
+      if (addPayloadErrors)
+        for (final Attachment attachment : attachments)
+          if (attachment.base64Error != null)
+          {
+            errorList.add (SingleError.builderError ()
+                                      .errorLocation (new SimpleLocation (resourceID, attachment.line,
+                                                                          attachment.column))
+                                      .errorFieldName (attachment.elementName)
+                                      .errorText ("Content of " + attachment.elementName + " is not valid base64: " + attachment.base64Error)
+                                      .build ());
+            changed = true;
+          }
+      if (!changed)
+        return result;
+      return new ValidationResult (result.getValidationArtefact (), errorList, result.getDurationMS ());
+    }
+
+    private static IValidationExecutor<IValidationSourceXML> getPayloadErrorLayer (final IValidationExecutorSet<IValidationSourceXML> executors)
+    {
+      IValidationExecutor<IValidationSourceXML> first = null;
+      for (final IValidationExecutor<IValidationSourceXML> layer : executors.getAllExecutors ())
+      {
+        if (layer.getValidationArtefact ().getValidationType ().getBaseType () == EValidationBaseType.XSD)
+          return layer;
+        if (first == null)
+          first = layer;
+      }
+      return first;
+    }
+
+    private IError mapLocation (final IError error)
+    {
+      final ILocation location = error.getErrorLocation ();
+      if (location == null || !location.hasLineNumber () || !location.hasColumnNumber ())
+        return error;
+      final List<int []> shifts = columnShifts.get (Integer.valueOf (location.getLineNumber ()));
+      if (shifts == null)
+        return error;
+
+      int delta = 0;
+      for (final int [] shift : shifts)
+        if (location.getColumnNumber () >= shift[0])
+          delta = shift[1];
+      if (delta == 0)
+        return error;
+      return SingleError.builder (error)
+                        .errorLocation (new SimpleLocation (location.getResourceID (),
+                                                            location.getLineNumber (),
+                                                            location.getColumnNumber () + delta))
+                        .build ();
+    }
+
+    void applyTo (final IJsonObject response)
+    {
+      final IJsonArray json = new JsonArray ();
+      for (final Attachment attachment : attachments)
+        json.add (attachment.getAsJson ());
+      response.add (JSON_ATTACHMENTS, json);
+    }
+  }
+
+  /**
+   * Streams the document once.
+   *
+   * @return <code>null</code> if the document contains no attachment payload
+   *         or cannot be reduced safely, in which case the original is
+   *         validated.
+   */
+  Result strip (final IReadableResource resource)
+  {
+    try (final InputStream input = resource.getInputStream ())
+    {
+      if (input == null)
+        return null;
+      return strip (resource.getResourceID (), new Scanner (input));
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      logger.debug ("Could not remove attachment payloads of {} - validating the original", resource.getPath (), ex);
+      return null;
+    }
+  }
+
+  private Result strip (final String resourceID, final Scanner scanner) throws IOException
+  {
+    if (scanner.startsWith (0xFE, 0xFF) || scanner.startsWith (0xFF, 0xFE) || scanner.startsWith (0, '<') || scanner.startsWith ('<', 0))
+      return null;
+    if (scanner.startsWith (0xEF, 0xBB, 0xBF))
+      scanner.skipByteOrderMark ();
+
+    final List<Attachment> attachments = new ArrayList<> ();
+    final Map<Integer, List<int []>> columnShifts = new HashMap<> ();
+    int shiftLine = 0;
+    int shift = 0;
+
+    int b;
+    while ((b = scanner.copy ()) >= 0)
+    {
+      if (b != '<')
+        continue;
+      if (scanner.startsWith ('!', '-', '-'))
+        scanner.copyUntil ("-->");
+      else
+        if (scanner.startsWith ('!', '[', 'C', 'D', 'A', 'T', 'A', '['))
+          scanner.copyUntil ("]]>");
+        else
+          if (scanner.startsWith ('?'))
+          {
+            final String instruction = scanner.copyUntil ("?>");
+            if (instruction.startsWith ("?xml"))
+            {
+              final String encoding = getDeclaredEncoding (instruction);
+              if (encoding != null)
+              {
+                if (!isAsciiCompatible (encoding))
+                  return null;
+                scanner.setCharset (Charset.forName (encoding));
+              }
+            }
+          }
+          else
+            if (scanner.startsWith ('!') || scanner.startsWith ('/'))
+              scanner.copyUntil (">");
+            else
+            {
+              final String tag = scanner.copyStartTag ();
+              final String qualifiedName = getQualifiedName (tag);
+              if (tag.endsWith ("/") || !ELEMENT_NAMES.contains (getLocalName (qualifiedName)))
+                continue;
+
+              final int line = scanner.line;
+              final int column = scanner.column;
+              final int reducedStart = column - (shiftLine == line ? shift : 0);
+              final PayloadDecoder decoder = new PayloadDecoder ();
+              if (!scanner.skipPayload (qualifiedName, decoder))
+                return null;
+              if (decoder.length == 0)
+                continue;
+
+              final int lineBreaks = scanner.line - line;
+              scanner.write (PLACEHOLDER);
+              for (int i = 0; i < lineBreaks; i++)
+                scanner.write ('\n');
+              final int reducedColumn = lineBreaks == 0 ? reducedStart + PLACEHOLDER.length : 1;
+              shiftLine = scanner.line;
+              shift = scanner.column - reducedColumn;
+              columnShifts.computeIfAbsent (Integer.valueOf (shiftLine), k -> new ArrayList<> ())
+                          .add (new int [] { reducedColumn, shift });
+              attachments.add (new Attachment (qualifiedName,
+                                               line,
+                                               column,
+                                               getAttribute (tag, "mimeCode"),
+                                               getAttribute (tag, "filename"),
+                                               decoder));
+            }
+    }
+
+    if (attachments.isEmpty ())
+      return null;
+    return new Result (resourceID, scanner.getOutput (), attachments, columnShifts);
+  }
+
+  private static String getDeclaredEncoding (final String declaration)
+  {
+    final Matcher matcher = ENCODING.matcher (declaration);
+    return matcher.find () ? matcher.group (1).toUpperCase (Locale.ROOT) : null;
+  }
+
+  private static boolean isAsciiCompatible (final String encoding)
+  {
+    return encoding.equals ("UTF-8") ||
+           encoding.equals ("UTF8") ||
+           encoding.equals ("US-ASCII") ||
+           encoding.equals ("ASCII") ||
+           encoding.startsWith ("ISO-8859-") ||
+           encoding.startsWith ("WINDOWS-125");
+  }
+
+  private static String getQualifiedName (final String tag)
+  {
+    int end = 0;
+    while (end < tag.length () && !Character.isWhitespace (tag.charAt (end)) && tag.charAt (end) != '/')
+      end++;
+    return tag.substring (0, end);
+  }
+
+  private static String getLocalName (final String qualifiedName)
+  {
+    return qualifiedName.substring (qualifiedName.indexOf (':') + 1);
+  }
+
+  private static String getAttribute (final String tag, final String name)
+  {
+    final Matcher matcher = ATTRIBUTE.matcher (tag);
+    while (matcher.find ())
+      if (matcher.group (1).equals (name))
+        return matcher.group (2) != null ? matcher.group (2) : matcher.group (3);
+    return null;
+  }
+
+  /**
+   * Decodes base64 on the fly into a SHA-256 digest, with the same rules as
+   * <code>xs:base64Binary</code>: whitespace is ignored, padding only at the
+   * end and unused bits of the last group must be zero.
+   */
+  static final class PayloadDecoder
+  {
+    private static final byte [] DECODE = new byte [128];
+    static
+    {
+      Arrays.fill (DECODE, (byte) -1);
+      final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+      for (int i = 0; i < alphabet.length (); i++)
+        DECODE[alphabet.charAt (i)] = (byte) i;
+    }
+
+    private final MessageDigest digest;
+    private final byte [] buffer = new byte [3 * 1024];
+    private int buffered;
+    private int bits;
+    private int sextets;
+    private int padding;
+    private boolean finished;
+    private long length;
+    private long size;
+    private String error;
+
+    PayloadDecoder ()
+    {
+      try
+      {
+        digest = MessageDigest.getInstance ("SHA-256");
+      }
+      catch (final NoSuchAlgorithmException ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+    }
+
+    void update (final int c, final int line, final int column)
+    {
+      length++;
+      final int value = decode (c);
+      if (value >= 0 && padding == 0 && !finished && error == null)
+      {
+        bits = (bits << 6) | value;
+        if (++sextets == 4)
+        {
+          // Fast path for a full group, the common case
+          buffer[buffered] = (byte) (bits >> 16);
+          buffer[buffered + 1] = (byte) (bits >> 8);
+          buffer[buffered + 2] = (byte) bits;
+          buffered += 3;
+          size += 3;
+          bits = 0;
+          sextets = 0;
+          if (buffered == buffer.length)
+            flush ();
+        }
+        return;
+      }
+      if (error != null)
+        return;
+      if (c == '=')
+      {
+        if (finished || sextets < 2 || sextets + padding >= 4)
+          fail ("unexpected padding", line, column);
+        else
+        {
+          padding++;
+          if (sextets + padding == 4)
+            completeGroup (line, column);
+        }
+        return;
+      }
+      if (finished || padding > 0)
+      {
+        fail ("data after padding", line, column);
+        return;
+      }
+      fail ("invalid character '" + (char) c + "'", line, column);
+    }
+
+    private void completeGroup (final int line, final int column)
+    {
+      if ((sextets == 2 && (bits & 0x0F) != 0) || (sextets == 3 && (bits & 0x03) != 0))
+      {
+        fail ("non-zero bits before padding", line, column);
+        return;
+      }
+      final int group = bits << (6 * (4 - sextets));
+      final int bytes = sextets - 1;
+      for (int i = 0; i < bytes; i++)
+        buffer[buffered++] = (byte) (group >> (16 - 8 * i));
+      if (buffered == buffer.length)
+        flush ();
+      size += bytes;
+      finished = padding > 0;
+      bits = 0;
+      sextets = 0;
+      padding = 0;
+    }
+
+    void finish (final int line, final int column)
+    {
+      if (error == null && (sextets > 0 || padding > 0))
+        fail ("length is not a multiple of 4", line, column);
+      flush ();
+    }
+
+    private void flush ()
+    {
+      digest.update (buffer, 0, buffered);
+      buffered = 0;
+    }
+
+    private void fail (final String message, final int line, final int column)
+    {
+      error = message + " at line " + line + ", column " + column;
+    }
+
+    private static int decode (final int c)
+    {
+      return c < DECODE.length ? DECODE[c] : -1;
+    }
+  }
+
+  /**
+   * Buffered byte reader that copies to the reduced output and tracks the
+   * line and column of the next character like the XML parser does: CR LF
+   * counts as one line break and, in UTF-8 only, continuation bytes take no
+   * column. In the single-byte encodings every byte is a character.
+   */
+  private static final class Scanner
+  {
+    private final InputStream input;
+    private final byte [] buffer = new byte [64 * 1024];
+    private int position;
+    private int limit;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream (8 * 1024);
+    private int line = 1;
+    private int column = 1;
+    private boolean afterCarriageReturn;
+    private Charset charset = StandardCharsets.UTF_8;
+    private boolean utf8 = true;
+
+    Scanner (final InputStream input)
+    {
+      this.input = input;
+    }
+
+    /** Set from the XML declaration, before any content is read. */
+    void setCharset (final Charset charset)
+    {
+      this.charset = charset;
+      this.utf8 = StandardCharsets.UTF_8.equals (charset);
+    }
+
+    private boolean fill (final int count) throws IOException
+    {
+      if (limit - position >= count)
+        return true;
+      if (position > 0)
+      {
+        System.arraycopy (buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+      }
+      while (limit < count)
+      {
+        final int read = input.read (buffer, limit, buffer.length - limit);
+        if (read < 0)
+          return false;
+        limit += read;
+      }
+      return true;
+    }
+
+    boolean startsWith (final int... bytes) throws IOException
+    {
+      if (!fill (bytes.length))
+        return false;
+      for (int i = 0; i < bytes.length; i++)
+        if ((buffer[position + i] & 0xFF) != bytes[i])
+          return false;
+      return true;
+    }
+
+    int read () throws IOException
+    {
+      if (!fill (1))
+        return -1;
+      final int b = buffer[position++] & 0xFF;
+      if (b == '\r')
+      {
+        line++;
+        column = 1;
+        afterCarriageReturn = true;
+        return b;
+      }
+      if (b == '\n')
+      {
+        if (!afterCarriageReturn)
+        {
+          line++;
+          column = 1;
+        }
+      }
+      else
+        if (!utf8 || (b & 0xC0) != 0x80)
+          column++;
+      afterCarriageReturn = false;
+      return b;
+    }
+
+    int copy () throws IOException
+    {
+      final int b = read ();
+      if (b >= 0)
+        output.write (b);
+      return b;
+    }
+
+    void write (final int b)
+    {
+      output.write (b);
+    }
+
+    void write (final byte [] bytes)
+    {
+      output.write (bytes, 0, bytes.length);
+    }
+
+    void skipByteOrderMark ()
+    {
+      output.write (buffer, position, 3);
+      position += 3;
+    }
+
+    /** Copies up to and including the terminator and returns what was copied before it. */
+    String copyUntil (final String terminator) throws IOException
+    {
+      final StringBuilder text = new StringBuilder ();
+      int b;
+      while ((b = copy ()) >= 0)
+      {
+        text.append ((char) b);
+        if (b == terminator.charAt (terminator.length () - 1) && text.length () >= terminator.length () && endsWith (text, terminator))
+          return text.substring (0, text.length () - terminator.length ());
+      }
+      return text.toString ();
+    }
+
+    private static boolean endsWith (final StringBuilder text, final String suffix)
+    {
+      return text.indexOf (suffix, text.length () - suffix.length ()) >= 0;
+    }
+
+    /** Copies a start tag up to its closing '&gt;', which may be quoted in attribute values. */
+    String copyStartTag () throws IOException
+    {
+      final ByteArrayOutputStream tag = new ByteArrayOutputStream (64);
+      int quote = 0;
+      int b;
+      while ((b = copy ()) >= 0)
+      {
+        if (quote != 0)
+        {
+          if (b == quote)
+            quote = 0;
+        }
+        else
+          if (b == '"' || b == '\'')
+            quote = b;
+          else
+            if (b == '>')
+              break;
+        tag.write (b);
+      }
+      return tag.toString (charset);
+    }
+
+    /**
+     * Reads the text content of the element into the decoder without copying
+     * it. Leading whitespace is kept so that empty elements stay unchanged.
+     *
+     * @return <code>false</code> if the content is not plain text directly
+     *         followed by the matching end tag.
+     */
+    boolean skipPayload (final String qualifiedName, final PayloadDecoder decoder) throws IOException
+    {
+      final ByteArrayOutputStream leadingWhitespace = new ByteArrayOutputStream ();
+      while (true)
+      {
+        if (position == limit && !fill (1))
+          return false;
+        // Tight loop over the buffer: payloads are by far the largest part of the document
+        int i = position;
+        while (i < limit)
+        {
+          final int b = buffer[i] & 0xFF;
+          if (b == '<' || b == '&')
+            break;
+          i++;
+          if (b == '\n')
+          {
+            if (!afterCarriageReturn)
+              line++;
+            column = 1;
+            afterCarriageReturn = false;
+          }
+          else
+            if (b == '\r')
+            {
+              line++;
+              column = 1;
+              afterCarriageReturn = true;
+            }
+            else
+            {
+              if (b != ' ' && b != '\t')
+                decoder.update (b, line, column);
+              if (!utf8 || (b & 0xC0) != 0x80)
+                column++;
+              afterCarriageReturn = false;
+            }
+          if (decoder.length == 0)
+            leadingWhitespace.write (b);
+        }
+        position = i;
+        if (i < limit)
+        {
+          if (buffer[i] == '&')
+            return false;
+          break;
+        }
+      }
+      if (decoder.length == 0)
+        leadingWhitespace.writeTo (output);
+      else
+        decoder.finish (line, column);
+
+      final byte [] endTag = ("</" + qualifiedName).getBytes (charset);
+      if (!fill (endTag.length + 1))
+        return false;
+      for (int i = 0; i < endTag.length; i++)
+        if (buffer[position + i] != endTag[i])
+          return false;
+      final int next = buffer[position + endTag.length];
+      return next == '>' || next == ' ' || next == '\t' || next == '\r' || next == '\n';
+    }
+
+    byte [] getOutput ()
+    {
+      return output.toByteArray ();
+    }
+  }
+}
@@ -0,0 +1,466 @@
+package com.phive.validation.api;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.io.resource.FileSystemResource;
+import com.helger.io.resource.IReadableResource;
+import com.helger.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.json.IJson;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.json.serialize.JsonReader;
+import com.helger.json.serialize.JsonWriterSettings;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.xml.source.IValidationSourceXML;
+
+/**
+ * Validates a directory tree or a ZIP archive of XML documents without a
+ * servlet container, using the same registry and {@link DocumentValidator} as
+ * the API. Results are appended to a JSON lines file, one object per document
+ * tagged with its relative path as <code>id</code>. Documents whose
+ * <code>id</code> is already in the output file are skipped with
+ * <code>--resume</code>, so an interrupted run continues where it stopped.
+ * <p>
+ * Run from the exploded web application:
+ *
+ * <pre>
+ * java -cp "/opt/app/WEB-INF/classes:/opt/app/WEB-INF/lib/*" com.phive.validation.api.BulkValidationRunner \
+ *   --rule eu.peppol.bis3:invoice:2024.11 --input /data/archive.zip --output /data/results.jsonl --resume
+ * </pre>
+ */
+public final class BulkValidationRunner
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (BulkValidationRunner.class);
+
+  private static final String FIELD_ID = "id";
+  private static final long PROGRESS_INTERVAL_SECONDS = 10;
+
+  private static final String USAGE = "Usage: BulkValidationRunner --rule <VESID> --input <directory|file.zip> --output <results.jsonl>" +
+                                      " [--threads <n>] [--resume]";
+
+  /** One document to validate: a file of the input directory or an entry of the input archive. */
+  private static final class Document
+  {
+    private final String id;
+    private final Path file;
+    private final ZipEntry zipEntry;
+
+    Document (final String id, final Path file, final ZipEntry zipEntry)
+    {
+      this.id = id;
+      this.file = file;
+      this.zipEntry = zipEntry;
+    }
+  }
+
+  private final DocumentValidator documentValidator = new DocumentValidator (LOGGER);
+  private final IValidationExecutorSet<IValidationSourceXML> executors;
+  private final String rule;
+  private final ZipFile zipFile;
+  private final Writer output;
+
+  private final AtomicLong processed = new AtomicLong ();
+  private final AtomicLong valid = new AtomicLong ();
+  private final AtomicLong invalid = new AtomicLong ();
+  private final AtomicLong errors = new AtomicLong ();
+  private final AtomicLong timeouts = new AtomicLong ();
+
+  private BulkValidationRunner (final IValidationExecutorSet<IValidationSourceXML> executors,
+                                final String rule,
+                                final ZipFile zipFile,
+                                final Writer output)
+  {
+    this.executors = executors;
+    this.rule = rule;
+    this.zipFile = zipFile;
+    this.output = output;
+  }
+
+  public static void main (final String [] args)
+  {
+    String rule = null;
+    String input = null;
+    String outputFile = null;
+    int threads = Runtime.getRuntime ().availableProcessors ();
+    boolean resume = false;
+    try
+    {
+      for (int i = 0; i < args.length; i++)
+        switch (args[i])
+        {
+          case "--rule":
+            rule = args[++i];
+            break;
+          case "--input":
+            input = args[++i];
+            break;
+          case "--output":
+            outputFile = args[++i];
+            break;
+          case "--threads":
+            threads = Integer.parseInt (args[++i]);
+            break;
+          case "--resume":
+            resume = true;
+            break;
+          default:
+            throw new IllegalArgumentException ("Unknown argument '" + args[i] + "'");
+        }
+    }
+    catch (final ArrayIndexOutOfBoundsException | IllegalArgumentException ex)
+    {
+      System.err.println (ex instanceof ArrayIndexOutOfBoundsException ? "Missing value for " + args[args.length - 1] : ex.getMessage ());
+      System.err.println (USAGE);
+      System.exit (2);
+      return;
+    }
+    if (rule == null || input == null || outputFile == null || threads < 1)
+    {
+      System.err.println (USAGE);
+      System.exit (2);
+      return;
+    }
+
+    try
+    {
+      System.exit (run (rule, Path.of (input), Path.of (outputFile), threads, resume));
+    }
+    catch (final IOException | IllegalStateException ex)
+    {
+      LOGGER.error ("Bulk validation failed", ex);
+      System.err.println ("Bulk validation failed: " + ex.getMessage ());
+      System.exit (1);
+    }
+  }
+
+  static int run (final String rule, final Path input, final Path outputFile, final int threads, final boolean resume) throws IOException
+  {
+    final long startTime = System.nanoTime ();
+    final ValidationRegistryHolder registryHolder = new ValidationRegistryHolder (LOGGER, false);
+    registryHolder.initialize ();
+
+    final IJsonObject ruleCheck = new JsonObject ();
+    final IValidationExecutorSet<IValidationSourceXML> executors = new DocumentValidator (LOGGER).resolveExecutorSet (registryHolder.current ().registry,
+                                                                                                                    rule,
+                                                                                                                    ruleCheck,
+                                                                                                                    startTime);
+    if (executors == null)
+    {
+      System.err.println (ruleCheck.getAsJsonString (JsonWriterSettings.DEFAULT_SETTINGS));
+      return 2;
+    }
+
+    if (resume)
+      truncateIncompleteLine (outputFile);
+    final Set<String> completedIds = resume ? readCompletedIds (outputFile) : new HashSet<> ();
+    final boolean isArchive = Files.isRegularFile (input) && input.getFileName ().toString ().toLowerCase (Locale.ROOT).endsWith (".zip");
+
+    try (ZipFile zipFile = isArchive ? new ZipFile (input.toFile ()) : null)
+    {
+      final List<Document> documents = isArchive ? listArchive (zipFile) : listDirectory (input);
+      final int total = documents.size ();
+      documents.removeIf (document -> completedIds.contains (document.id));
+      final int skipped = total - documents.size ();
+      System.err.println ("Validating " + documents.size () + " of " + total + " documents against " + rule + " on " + threads + " threads" +
+                          (skipped > 0 ? " (" + skipped + " already in " + outputFile + ")" : ""));
+
+      final long validationStart = System.nanoTime ();
+      try (Writer output = openOutput (outputFile, resume))
+      {
+        final BulkValidationRunner runner = new BulkValidationRunner (executors, rule, zipFile, output);
+        final ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor (runnable -> {
+          final Thread thread = new Thread (runnable, "phive-bulk-progress");
+          thread.setDaemon (true);
+          return thread;
+        });
+        progress.scheduleAtFixedRate ( () -> runner.printProgress (documents.size (), validationStart),
+                                      PROGRESS_INTERVAL_SECONDS,
+                                      PROGRESS_INTERVAL_SECONDS,
+                                      TimeUnit.SECONDS);
+
+        final ForkJoinPool pool = new ForkJoinPool (threads);
+        try
+        {
+          pool.invoke (runner.new ValidateRange (documents, 0, documents.size ()));
+        }
+        finally
+        {
+          pool.shutdown ();
+          progress.shutdownNow ();
+        }
+        runner.printSummary (validationStart, threads, skipped);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Splits the range in halves until single documents remain. Idle workers
+   * steal the pending halves, so slow documents never leave cores unused.
+   */
+  private final class ValidateRange extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<Document> documents;
+    private final int from;
+    private final int to;
+
+    ValidateRange (final List<Document> documents, final int from, final int to)
+    {
+      this.documents = documents;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute ()
+    {
+      if (to - from == 1)
+      {
+        validate (documents.get (from));
+        return;
+      }
+      if (to > from)
+      {
+        final int middle = (from + to) >>> 1;
+        invokeAll (new ValidateRange (documents, from, middle), new ValidateRange (documents, middle, to));
+      }
+    }
+  }
+
+  private void validate (final Document document)
+  {
+    final long startTime = System.nanoTime ();
+    final IJsonObject result = new JsonObject ();
+    try
+    {
+      documentValidator.validate (result,
+                                  startTime,
+                                  rule,
+                                  executors,
+                                  readDocument (document),
+                                  document.id,
+                                  ValidationBudget.create (startTime, rule, null));
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      LOGGER.error ("Error during bulk validation of {}", document.id, ex);
+      DocumentValidator.applyValidationError (result, "Internal error occurred while processing " + document.id + ": " + ex.getMessage (), startTime);
+    }
+
+    result.add (FIELD_ID, document.id);
+    count (AccessLog.getOutcome (result));
+    writeLine (result);
+  }
+
+  private IReadableResource readDocument (final Document document) throws IOException
+  {
+    if (document.file != null)
+      return new FileSystemResource (document.file.toFile ());
+
+    try (InputStream input = zipFile.getInputStream (document.zipEntry))
+    {
+      return new ReadableResourceByteArray (document.id, input.readAllBytes (), false);
+    }
+  }
+
+  private void count (final String outcome)
+  {
+    processed.incrementAndGet ();
+    switch (outcome)
+    {
+      case AccessLog.OUTCOME_VALID:
+        valid.incrementAndGet ();
+        break;
+      case AccessLog.OUTCOME_INVALID:
+        invalid.incrementAndGet ();
+        break;
+      case AccessLog.OUTCOME_TIMEOUT:
+        timeouts.incrementAndGet ();
+        break;
+      default:
+        errors.incrementAndGet ();
+        break;
+    }
+  }
+
+  /**
+   * Writes and flushes one complete line, so that an interrupted run leaves at
+   * most one truncated line, which is removed on resume.
+   */
+  private void writeLine (final IJsonObject result)
+  {
+    final String line = result.getAsJsonString (JsonWriterSettings.DEFAULT_SETTINGS) + "\n";
+    synchronized (output)
+    {
+      try
+      {
+        output.write (line);
+        output.flush ();
+      }
+      catch (final IOException ex)
+      {
+        throw new IllegalStateException ("Failed to write results", ex);
+      }
+    }
+  }
+
+  private void printProgress (final int total, final long validationStart)
+  {
+    final long done = processed.get ();
+    System.err.println (String.format (Locale.ROOT,
+                                       "Progress: %d/%d documents (%.1f docs/s)",
+                                       done,
+                                       total,
+                                       perSecond (done, validationStart)));
+  }
+
+  private void printSummary (final long validationStart, final int threads, final int skipped)
+  {
+    final long done = processed.get ();
+    final double seconds = (System.nanoTime () - validationStart) / 1_000_000_000d;
+    System.out.println (String.format (Locale.ROOT,
+                                       "Validated %d documents in %.1fs (%.1f docs/s on %d threads): %d valid, %d invalid, %d errors, %d timeouts, %d skipped",
+                                       done,
+                                       seconds,
+                                       perSecond (done, validationStart),
+                                       threads,
+                                       valid.get (),
+                                       invalid.get (),
+                                       errors.get (),
+                                       timeouts.get (),
+                                       skipped));
+  }
+
+  private static double perSecond (final long count, final long since)
+  {
+    final double seconds = (System.nanoTime () - since) / 1_000_000_000d;
+    return seconds > 0 ? count / seconds : 0;
+  }
+
+  private static List<Document> listDirectory (final Path directory) throws IOException
+  {
+    final List<Document> ret = new ArrayList<> ();
+    try (Stream<Path> files = Files.walk (directory))
+    {
+      files.filter (Files::isRegularFile).filter (file -> isXmlName (file.getFileName ().toString ())).sorted ().forEach (file -> {
+        final String id = directory.relativize (file).toString ().replace (File.separatorChar, '/');
+        ret.add (new Document (id, file, null));
+      });
+    }
+    return ret;
+  }
+
+  private static List<Document> listArchive (final ZipFile zipFile)
+  {
+    final List<Document> ret = new ArrayList<> ();
+    zipFile.stream ()
+           .filter (entry -> !entry.isDirectory () && isXmlName (entry.getName ()))
+           .forEach (entry -> ret.add (new Document (entry.getName (), null, entry)));
+    return ret;
+  }
+
+  private static boolean isXmlName (final String name)
+  {
+    return name.toLowerCase (Locale.ROOT).endsWith (".xml");
+  }
+
+  private static Set<String> readCompletedIds (final Path outputFile) throws IOException
+  {
+    final Set<String> ret = new HashSet<> ();
+    if (!Files.exists (outputFile))
+      return ret;
+
+    try (BufferedReader reader = Files.newBufferedReader (outputFile, StandardCharsets.UTF_8))
+    {
+      String line;
+      while ((line = reader.readLine ()) != null)
+      {
+        if (line.isBlank ())
+          continue;
+        final IJson json = JsonReader.readFromString (line);
+        if (json != null && json.isObject () && json.getAsObject ().containsKey (FIELD_ID))
+          ret.add (json.getAsObject ().getAsString (FIELD_ID));
+      }
+    }
+    return ret;
+  }
+
+  private static Writer openOutput (final Path outputFile, final boolean resume) throws IOException
+  {
+    final Path parent = outputFile.toAbsolutePath ().getParent ();
+    if (parent != null)
+      Files.createDirectories (parent);
+
+    final boolean append = resume && Files.exists (outputFile);
+    return append ? Files.newBufferedWriter (outputFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND)
+                  : Files.newBufferedWriter (outputFile, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Cuts the output back to its last line break, removing the line an
+   * interrupted run was writing, so that the resumed run appends to complete
+   * lines only.
+   */
+  private static void truncateIncompleteLine (final Path file) throws IOException
+  {
+    if (!Files.exists (file))
+      return;
+    try (RandomAccessFile raf = new RandomAccessFile (file.toFile (), "rw"))
+    {
+      final byte [] buffer = new byte [8192];
+      long end = raf.length ();
+      while (end > 0)
+      {
+        final int count = (int) Math.min (buffer.length, end);
+        raf.seek (end - count);
+        raf.readFully (buffer, 0, count);
+        for (int i = count - 1; i >= 0; i--)
+          if (buffer[i] == '\n')
+          {
+            final long length = end - count + i + 1;
+            if (length < raf.length ())
+            {
+              LOGGER.warn ("Removing incomplete last line of {}", file);
+              raf.setLength (length);
+            }
+            return;
+          }
+        end -= count;
+      }
+      if (raf.length () > 0)
+      {
+        LOGGER.warn ("Removing incomplete last line of {}", file);
+        raf.setLength (0);
+      }
+    }
+  }
+}
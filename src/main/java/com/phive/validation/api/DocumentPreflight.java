@@ -0,0 +1,497 @@
+package com.phive.validation.api;
+
+import java.io.CharConversionException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+
+import com.helger.io.resource.IReadableResource;
+import com.helger.phive.api.EValidationType;
+import com.helger.phive.api.executor.IValidationExecutor;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.xml.source.IValidationSourceXML;
+
+/**
+ * Streaming check that runs before a document is parsed into a DOM. It rejects
+ * uploads that are too large, nested too deeply, not well-formed, in a broken
+ * encoding, or whose root element is not the one declared by the XML Schema of
+ * the chosen rule. Nothing is built in memory, so garbage is rejected long
+ * before the XSD layer would have seen it.
+ * <p>
+ * Configured via <code>PREFLIGHT_ENABLED</code> (default true),
+ * <code>PREFLIGHT_MAX_BYTES</code> (default 10 MB, 0 disables) and
+ * <code>PREFLIGHT_MAX_DEPTH</code> (default 100, 0 disables).
+ */
+final class DocumentPreflight
+{
+  static final String CHECK_SIZE = "size";
+  static final String CHECK_DEPTH = "depth";
+  static final String CHECK_ENCODING = "encoding";
+  static final String CHECK_WELL_FORMED = "wellFormed";
+  static final String CHECK_ROOT_ELEMENT = "rootElement";
+
+  private static final boolean ENABLED = !"false".equalsIgnoreCase (System.getenv ("PREFLIGHT_ENABLED"));
+  private static final long MAX_BYTES = EnvConfig.parseNonNegativeIntEnv ("PREFLIGHT_MAX_BYTES", 10 * 1024 * 1024);
+  private static final int MAX_DEPTH = EnvConfig.parseNonNegativeIntEnv ("PREFLIGHT_MAX_DEPTH", 100);
+
+  /** Configured once; creating readers from a configured factory is thread-safe. */
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory ();
+
+  static final class Failure
+  {
+    private final String check;
+    private final String message;
+
+    Failure (final String check, final String message)
+    {
+      this.check = check;
+      this.message = message;
+    }
+
+    String getCheck ()
+    {
+      return check;
+    }
+
+    String getMessage ()
+    {
+      return message;
+    }
+  }
+
+  /**
+   * Root elements accepted by the XSD layer of an executor set, as
+   * <code>{namespace}localName</code>.
+   */
+  private static final class ExpectedRoot
+  {
+    private final Set<String> qualifiedNames;
+
+    ExpectedRoot (final Set<String> qualifiedNames)
+    {
+      this.qualifiedNames = qualifiedNames;
+    }
+  }
+
+  private static final int MAX_LISTED_ROOT_NAMES = 3;
+
+  private static final ExpectedRoot UNKNOWN_ROOT = new ExpectedRoot (Collections.emptySet ());
+
+  /** Protocols from which included and imported schemas are read; never the network. */
+  private static final Set<String> LOCAL_PROTOCOLS = Set.of ("file", "jar");
+
+  private final Logger logger;
+  private final long maxBytes;
+  private final int maxDepth;
+  /**
+   * Weak keys, so the executor sets of a replaced registry can be collected.
+   * The lock only guards the map access; the schemas are read outside of it.
+   */
+  private final Map<IValidationExecutorSet<IValidationSourceXML>, ExpectedRoot> expectedRoots = Collections.synchronizedMap (new WeakHashMap<> ());
+
+  DocumentPreflight (final Logger logger)
+  {
+    this (logger, MAX_BYTES, MAX_DEPTH);
+  }
+
+  DocumentPreflight (final Logger logger, final long maxBytes, final int maxDepth)
+  {
+    this.logger = logger;
+    this.maxBytes = maxBytes;
+    this.maxDepth = maxDepth;
+  }
+
+  static boolean isEnabled ()
+  {
+    return ENABLED;
+  }
+
+  private static XMLInputFactory createInputFactory ()
+  {
+    final XMLInputFactory factory = XMLInputFactory.newFactory ();
+    factory.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    factory.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    factory.setProperty (XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    return factory;
+  }
+
+  /**
+   * Streams the document once.
+   *
+   * @return <code>null</code> if the document may be validated, the first
+   *         failed check otherwise.
+   */
+  Failure check (final IReadableResource resource, final IValidationExecutorSet<IValidationSourceXML> executors)
+  {
+    final ExpectedRoot expectedRoot = getExpectedRoot (executors);
+
+    final InputStream source = resource.getInputStream ();
+    if (source == null)
+      return new Failure (CHECK_WELL_FORMED, "The document could not be read.");
+    final LimitedInputStream input = new LimitedInputStream (source, maxBytes);
+
+    XMLStreamReader reader = null;
+    try
+    {
+      reader = INPUT_FACTORY.createXMLStreamReader (input);
+      int depth = 0;
+      boolean rootSeen = false;
+      while (reader.hasNext ())
+      {
+        final int event = reader.next ();
+        if (event == XMLStreamConstants.START_ELEMENT)
+        {
+          depth++;
+          if (maxDepth > 0 && depth > maxDepth)
+            return new Failure (CHECK_DEPTH,
+                                "Document nesting exceeds the maximum depth of " + maxDepth + " at " + describe (reader.getLocation ()) + ".");
+          if (!rootSeen)
+          {
+            rootSeen = true;
+            final Failure rootFailure = checkRootElement (reader, expectedRoot);
+            if (rootFailure != null)
+              return rootFailure;
+          }
+        }
+        else
+          if (event == XMLStreamConstants.END_ELEMENT)
+            depth--;
+      }
+      return null;
+    }
+    catch (final XMLStreamException | RuntimeException ex)
+    {
+      if (input.isLimitExceeded ())
+        return new Failure (CHECK_SIZE, "Document exceeds the maximum size of " + maxBytes + " bytes.");
+      if (hasCause (ex, CharConversionException.class))
+        return new Failure (CHECK_ENCODING,
+                            "Document bytes do not match its declared or detected encoding" +
+                                            describeLocation (ex) +
+                                            ": " +
+                                            getRootMessage (ex));
+      return new Failure (CHECK_WELL_FORMED, "Document is not well-formed XML" + describeLocation (ex) + ": " + getRootMessage (ex));
+    }
+    finally
+    {
+      close (reader, input);
+    }
+  }
+
+  private static Failure checkRootElement (final XMLStreamReader reader, final ExpectedRoot expectedRoot)
+  {
+    if (expectedRoot.qualifiedNames.isEmpty ())
+      return null;
+
+    final String namespaceURI = reader.getNamespaceURI () != null ? reader.getNamespaceURI () : XMLConstants.NULL_NS_URI;
+    final String qualifiedName = qualify (namespaceURI, reader.getLocalName ());
+    if (expectedRoot.qualifiedNames.contains (qualifiedName))
+      return null;
+
+    return new Failure (CHECK_ROOT_ELEMENT,
+                        "Root element " + qualifiedName +
+                                           " does not match the selected rule, which expects " +
+                                           describe (expectedRoot.qualifiedNames) +
+                                           ".");
+  }
+
+  private static String qualify (final String namespaceURI, final String localName)
+  {
+    return "{" + namespaceURI + "}" + localName;
+  }
+
+  private static String describe (final Set<String> qualifiedNames)
+  {
+    if (qualifiedNames.size () <= MAX_LISTED_ROOT_NAMES)
+      return String.join (" or ", qualifiedNames);
+    return String.join (" or ", qualifiedNames.stream ().limit (MAX_LISTED_ROOT_NAMES).toList ()) +
+           " (or one of " +
+           (qualifiedNames.size () - MAX_LISTED_ROOT_NAMES) +
+           " other global elements)";
+  }
+
+  private ExpectedRoot getExpectedRoot (final IValidationExecutorSet<IValidationSourceXML> executors)
+  {
+    final ExpectedRoot cached = expectedRoots.get (executors);
+    if (cached != null)
+      return cached;
+    // Concurrent first requests may both read the schemas; the first result is kept
+    final ExpectedRoot expectedRoot = readExpectedRoot (executors);
+    final ExpectedRoot previous = expectedRoots.putIfAbsent (executors, expectedRoot);
+    return previous != null ? previous : expectedRoot;
+  }
+
+  /**
+   * Collects the global elements of the main schema of the first XSD layer and
+   * of all schemas it includes or imports, since any of them is a valid root
+   * for the XSD layer. Executor sets without an XSD layer, or whose schemas
+   * cannot all be read, get no root element check.
+   */
+  private ExpectedRoot readExpectedRoot (final IValidationExecutorSet<IValidationSourceXML> executors)
+  {
+    for (final IValidationExecutor<IValidationSourceXML> executor : executors.getAllExecutors ())
+    {
+      if (executor.getValidationArtefact ().getValidationType () != EValidationType.XSD)
+        continue;
+
+      final IReadableResource schema = executor.getValidationArtefact ().getRuleResource ();
+      final Set<String> qualifiedNames = new LinkedHashSet<> ();
+      try
+      {
+        final URL url = schema.getAsURL ();
+        final Set<String> visited = new HashSet<> ();
+        if (url != null)
+          visited.add (url.toExternalForm ());
+        if (!collectGlobalElements (schema.getInputStream (), url, null, qualifiedNames, visited))
+        {
+          logger.debug ("Not all schemas referenced by {} could be read - skipping root element pre-flight check", schema.getResourceID ());
+          return UNKNOWN_ROOT;
+        }
+        return new ExpectedRoot (Collections.unmodifiableSet (qualifiedNames));
+      }
+      catch (final IOException | URISyntaxException | XMLStreamException | RuntimeException ex)
+      {
+        logger.debug ("Could not read root element of schema {} - skipping root element pre-flight check", schema.getResourceID (), ex);
+        return UNKNOWN_ROOT;
+      }
+    }
+    return UNKNOWN_ROOT;
+  }
+
+  /**
+   * Reads the global element names of one schema and follows its
+   * <code>include</code>, <code>redefine</code>, <code>override</code> and
+   * <code>import</code> references.
+   *
+   * @param chameleonNamespace
+   *        namespace of the including schema, used if an included schema has
+   *        no target namespace.
+   * @return <code>false</code> if a referenced schema could not be read.
+   */
+  private static boolean collectGlobalElements (final InputStream input,
+                                                final URL baseURL,
+                                                final String chameleonNamespace,
+                                                final Set<String> qualifiedNames,
+                                                final Set<String> visited) throws IOException,
+                                                                           URISyntaxException,
+                                                                           XMLStreamException
+  {
+    if (input == null)
+      return false;
+
+    final Map<String, String> references = new LinkedHashMap<> ();
+    XMLStreamReader reader = null;
+    try
+    {
+      reader = INPUT_FACTORY.createXMLStreamReader (input);
+      String targetNamespace = chameleonNamespace != null ? chameleonNamespace : XMLConstants.NULL_NS_URI;
+      int depth = 0;
+      while (reader.hasNext ())
+      {
+        final int event = reader.next ();
+        if (event == XMLStreamConstants.START_ELEMENT)
+        {
+          depth++;
+          if (depth == 1)
+          {
+            final String value = reader.getAttributeValue (null, "targetNamespace");
+            if (value != null)
+              targetNamespace = value;
+          }
+          else
+            if (depth == 2 && XMLConstants.W3C_XML_SCHEMA_NS_URI.equals (reader.getNamespaceURI ()))
+            {
+              final String localName = reader.getLocalName ();
+              if ("element".equals (localName))
+              {
+                final String name = reader.getAttributeValue (null, "name");
+                if (name != null)
+                  qualifiedNames.add (qualify (targetNamespace, name));
+              }
+              else
+              {
+                final String location = reader.getAttributeValue (null, "schemaLocation");
+                // An import without location only refers to a namespace known otherwise
+                if (location != null)
+                  if ("import".equals (localName))
+                    references.put (location, null);
+                  else
+                    if ("include".equals (localName) || "redefine".equals (localName) || "override".equals (localName))
+                      references.put (location, targetNamespace);
+              }
+            }
+        }
+        else
+          if (event == XMLStreamConstants.END_ELEMENT)
+            depth--;
+      }
+    }
+    finally
+    {
+      close (reader, input);
+    }
+
+    for (final Map.Entry<String, String> reference : references.entrySet ())
+    {
+      if (baseURL == null)
+        return false;
+      final URL url = resolve (baseURL, reference.getKey ());
+      if (!LOCAL_PROTOCOLS.contains (url.getProtocol ()))
+        return false;
+      if (visited.add (url.toExternalForm ()) &&
+          !collectGlobalElements (url.openStream (), url, reference.getValue (), qualifiedNames, visited))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Resolves a schema location against the URL of the referencing schema.
+   * <code>jar:</code> URIs are opaque, so their entry path is resolved
+   * separately.
+   */
+  static URL resolve (final URL baseURL, final String location) throws URISyntaxException, MalformedURLException
+  {
+    final URI reference = new URI (location);
+    if (reference.isAbsolute ())
+      return reference.toURL ();
+
+    final URI base = baseURL.toURI ();
+    if (!base.isOpaque ())
+      return base.resolve (reference).toURL ();
+
+    final String spec = base.getRawSchemeSpecificPart ();
+    final int separator = spec.indexOf ("!/");
+    if (separator < 0)
+      throw new MalformedURLException ("Cannot resolve '" + location + "' against " + baseURL);
+    final URI entry = new URI (spec.substring (separator + 1)).resolve (reference);
+    return new URI (base.getScheme () + ":" + spec.substring (0, separator + 1) + entry.getRawPath ()).toURL ();
+  }
+
+  private static String describe (final Location location)
+  {
+    return location == null ? "unknown position" : "line " + location.getLineNumber () + ", column " + location.getColumnNumber ();
+  }
+
+  private static String describeLocation (final Exception ex)
+  {
+    if (ex instanceof XMLStreamException && ((XMLStreamException) ex).getLocation () != null)
+      return " (" + describe (((XMLStreamException) ex).getLocation ()) + ")";
+    return "";
+  }
+
+  private static String getRootMessage (final Throwable ex)
+  {
+    Throwable cause = ex;
+    while (cause.getCause () != null && cause.getCause () != cause)
+      cause = cause.getCause ();
+    String message = cause.getMessage ();
+    if (message == null)
+      message = ex.getMessage ();
+    if (message == null)
+      return cause.getClass ().getSimpleName ();
+    // StAX prefixes the position to its messages; it is already reported separately
+    final int marker = message.indexOf ("Message: ");
+    return marker >= 0 ? message.substring (marker + "Message: ".length ()) : message;
+  }
+
+  private static boolean hasCause (final Throwable ex, final Class<? extends Throwable> type)
+  {
+    for (Throwable cause = ex; cause != null; cause = cause.getCause () != cause ? cause.getCause () : null)
+      if (type.isInstance (cause))
+        return true;
+    if (ex instanceof XMLStreamException)
+      return type.isInstance (((XMLStreamException) ex).getNestedException ());
+    return false;
+  }
+
+  private static void close (final XMLStreamReader reader, final InputStream input)
+  {
+    try
+    {
+      if (reader != null)
+        reader.close ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      // ignored
+    }
+    try
+    {
+      if (input != null)
+        input.close ();
+    }
+    catch (final IOException ex)
+    {
+      // ignored
+    }
+  }
+
+  /** Fails the read as soon as more than the allowed number of bytes was seen. */
+  private static final class LimitedInputStream extends FilterInputStream
+  {
+    private final long limit;
+    private long count;
+    private boolean limitExceeded;
+
+    LimitedInputStream (final InputStream input, final long limit)
+    {
+      super (input);
+      this.limit = limit;
+    }
+
+    boolean isLimitExceeded ()
+    {
+      return limitExceeded;
+    }
+
+    private void count (final long bytes) throws IOException
+    {
+      if (bytes <= 0)
+        return;
+      count += bytes;
+      if (limit > 0 && count > limit)
+      {
+        limitExceeded = true;
+        throw new IOException ("Document exceeds " + limit + " bytes");
+      }
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      final int ret = super.read ();
+      if (ret >= 0)
+        count (1);
+      return ret;
+    }
+
+    @Override
+    public int read (final byte [] buffer, final int offset, final int length) throws IOException
+    {
+      final int ret = super.read (buffer, offset, length);
+      count (ret);
+      return ret;
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package com.phive.validation.api;
+
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import com.helger.collection.commons.ICommonsList;
+import com.helger.diver.api.coord.DVRCoordinate;
+import com.helger.io.resource.IReadableResource;
+import com.helger.json.IJson;
+import com.helger.json.IJsonArray;
+import com.helger.json.IJsonObject;
+import com.helger.phive.api.execute.ValidationExecutionManager;
+import com.helger.phive.api.executor.IValidationExecutor;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.api.result.ValidationResultList;
+import com.helger.phive.api.validity.IValidityDeterminator;
+import com.helger.phive.result.json.JsonValidationResultListHelper;
+import com.helger.phive.result.json.PhiveJsonHelper;
+import com.helger.phive.xml.source.IValidationSourceXML;
+import com.helger.phive.xml.source.ValidationSourceXML;
+import com.helger.phive.xml.xsd.ValidationExecutorXSD;
+
+/**
+ * Validates one document against a resolved executor set and writes the JSON
+ * result. Independent of the servlet API so that every entry point produces
+ * the same response format.
+ */
+final class DocumentValidator
+{
+  static final String JSON_TIMEOUT = "timeout";
+
+  static final String JSON_PREFLIGHT = "preflight";
+
+  private final Logger logger;
+  private final DocumentPreflight preflight;
+  private final AttachmentStripper attachmentStripper;
+  private final XsdValidatorPool xsdValidatorPool = new XsdValidatorPool ();
+
+  DocumentValidator (final Logger logger)
+  {
+    this.logger = logger;
+    this.preflight = DocumentPreflight.isEnabled () ? new DocumentPreflight (logger) : null;
+    this.attachmentStripper = AttachmentStripper.isEnabled () ? new AttachmentStripper (logger) : null;
+  }
+
+  /**
+   * Resolves the rule parameter to an executor set. On failure the matching
+   * error is applied to the response and <code>null</code> is returned.
+   */
+  IValidationExecutorSet<IValidationSourceXML> resolveExecutorSet (final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
+                                                                   final String rule,
+                                                                   final IJsonObject response,
+                                                                   final long startTime)
+  {
+    if (rule == null || rule.trim ().isEmpty ())
+    {
+      applyValidationError (response,
+                            "Missing required parameter 'rule'. Please specify a VESID (e.g., 'eu.peppol.bis3:invoice:2024.11')",
+                            startTime);
+      return null;
+    }
+
+    final DVRCoordinate vesid = DVRCoordinate.parseOrNull (rule);
+    if (vesid == null)
+    {
+      applyValidationError (response,
+                            "Invalid rule format: '" + rule +
+                                      "'. Expected format: 'groupId:artifactId:version' (e.g., 'eu.peppol.bis3:invoice:2024.11')",
+                            startTime);
+      return null;
+    }
+
+    final IValidationExecutorSet<IValidationSourceXML> executors = registry.getOfID (vesid);
+    if (executors == null)
+    {
+      applyValidationError (response,
+                            "Rule not found: '" + rule + "'. Available rules can be queried via /list-rules endpoint.",
+                            startTime);
+      return null;
+    }
+    return executors;
+  }
+
+  /**
+   * Runs the executors layer by layer like {@link ValidationExecutionManager},
+   * but only starts a layer while the budget lasts. Layers that could not start
+   * in time are reported as skipped and the response is marked as timed out.
+   * Documents failing the {@link DocumentPreflight} are rejected before any
+   * DOM is built. Attachment payloads are replaced by the
+   * {@link AttachmentStripper} if enabled.
+   */
+  void validate (final IJsonObject response,
+                 final long startTime,
+                 final String rule,
+                 final IValidationExecutorSet<IValidationSourceXML> executors,
+                 final IReadableResource resource,
+                 final String fileName,
+                 final ValidationBudget budget)
+  {
+    if (preflight != null)
+    {
+      final DocumentPreflight.Failure failure = preflight.check (resource, executors);
+      if (failure != null)
+      {
+        logger.debug ("Pre-flight check '{}' failed for '{}': {}", failure.getCheck (), fileName, failure.getMessage ());
+        applyValidationError (response, failure.getMessage (), startTime);
+        response.add (JSON_PREFLIGHT, failure.getCheck ());
+        return;
+      }
+    }
+
+    final AttachmentStripper.Result stripped = attachmentStripper != null ? attachmentStripper.strip (resource) : null;
+    final IValidationSourceXML source = ValidationSourceXML.create (stripped != null ? stripped.getAsResource () : resource);
+    final Locale locale = Objects.requireNonNull (Locale.US);
+    final IValidityDeterminator<IValidationSourceXML> validityDeterminator = IValidityDeterminator.createDefault ();
+
+    final ValidationResultList validationResults = new ValidationResultList (source);
+    boolean stopValidation = false;
+    boolean timedOut = false;
+    for (final IValidationExecutor<IValidationSourceXML> executor : executors.getAllExecutors ())
+    {
+      if (!stopValidation && budget.isExhausted ())
+        timedOut = true;
+      if (stopValidation || timedOut)
+      {
+        validationResults.add (ValidationResult.createSkippedResult (executor.getValidationArtefact ()));
+        continue;
+      }
+
+      ValidationResult result = applyValidation (executor, source, locale);
+      if (stripped != null)
+        result = stripped.adjust (executors, executor, result);
+      validationResults.add (result);
+      budget.recordCompleted (result);
+      if (validityDeterminator.getValidity (executor, result.getErrorList ()).isInvalid () && executor.isStopValidationOnError ())
+        stopValidation = true;
+    }
+
+    applyResults (response, startTime, rule, executors, validationResults, fileName, timedOut ? budget : null);
+    if (stripped != null)
+      stripped.applyTo (response);
+  }
+
+  private ValidationResult applyValidation (final IValidationExecutor<IValidationSourceXML> executor,
+                                           final IValidationSourceXML source,
+                                           final Locale locale)
+  {
+    if (executor instanceof ValidationExecutorXSD && xsdValidatorPool.isEnabled ())
+      return xsdValidatorPool.applyValidation ((ValidationExecutorXSD) executor, source, locale);
+    return executor.applyValidation (source, locale);
+  }
+
+  /**
+   * Builds the response of a validation whose budget ran out while a layer was
+   * still running: the layers recorded as completed are kept and all others
+   * are reported as skipped.
+   */
+  void applyTimeout (final IJsonObject response,
+                     final long startTime,
+                     final String rule,
+                     final IValidationExecutorSet<IValidationSourceXML> executors,
+                     final String fileName,
+                     final ValidationBudget budget)
+  {
+    final ValidationResultList validationResults = budget.getCompletedResults ();
+    final ICommonsList<IValidationExecutor<IValidationSourceXML>> allExecutors = executors.getAllExecutors ();
+    for (int i = validationResults.size (); i < allExecutors.size (); i++)
+      validationResults.add (ValidationResult.createSkippedResult (allExecutors.get (i).getValidationArtefact ()));
+
+    applyResults (response, startTime, rule, executors, validationResults, fileName, budget);
+  }
+
+  private void applyResults (final IJsonObject response,
+                             final long startTime,
+                             final String rule,
+                             final IValidationExecutorSet<IValidationSourceXML> executors,
+                             final ValidationResultList validationResults,
+                             final String fileName,
+                             final ValidationBudget exhaustedBudget)
+  {
+    final Locale locale = Objects.requireNonNull (Locale.US);
+    final long durationMS = elapsedMs (startTime);
+    new JsonValidationResultListHelper ().sourceToJson (null).ves (executors).applyTo (response, validationResults, locale, durationMS);
+
+    markSkippedValidations (response, validationResults, exhaustedBudget);
+
+    final boolean timedOut = exhaustedBudget != null;
+    response.add (PhiveJsonHelper.JSON_SUCCESS, !timedOut && validationResults.containsNoError ());
+    response.add ("fileName", fileName != null && !fileName.isEmpty () ? fileName : "pasted-content.xml");
+    response.add ("rule", rule);
+    if (timedOut)
+    {
+      response.add (JSON_TIMEOUT, true);
+      response.add ("timeoutMs", exhaustedBudget.getBudgetMs ());
+      response.add ("message", "Validation time budget of " + exhaustedBudget.getBudgetMs () + "ms exhausted - remaining layers were not executed");
+    }
+  }
+
+  private void markSkippedValidations (final IJsonObject response,
+                                       final ValidationResultList validationResults,
+                                       final ValidationBudget exhaustedBudget)
+  {
+    final IJsonArray results = response.getAsArray ("results");
+    if (results == null)
+      return;
+
+    final boolean xmlSchemaFailed = hasXmlSchemaFailed (validationResults);
+    if (xmlSchemaFailed)
+      logger.debug ("XML Schema validation failed - marking subsequent Schematron validations as SKIPPED");
+
+    int index = 0;
+    for (final IJson resultItem : results)
+    {
+      if (resultItem == null || !resultItem.isObject ())
+        continue;
+
+      final IJsonObject resultObj = resultItem.getAsObject ();
+      if (resultObj == null)
+        continue;
+
+      if (xmlSchemaFailed && index > 0)
+      {
+        resultObj.add ("skipped", true);
+        resultObj.add ("skipReason", "XML Schema validation failed - Schematron validation not executed");
+      }
+      else
+        if (exhaustedBudget != null && index < validationResults.size () && validationResults.get (index).isSkipped ())
+        {
+          resultObj.add ("skipped", true);
+          resultObj.add ("skipReason", "Validation time budget of " + exhaustedBudget.getBudgetMs () + "ms exhausted - layer not executed");
+        }
+        else
+        {
+          resultObj.add ("skipped", false);
+        }
+
+      index++;
+    }
+  }
+
+  private static boolean hasXmlSchemaFailed (final ValidationResultList validationResults)
+  {
+    if (validationResults.isEmpty ())
+      return false;
+
+    final var firstResult = validationResults.get (0);
+    return firstResult.getErrorList () != null && !firstResult.getErrorList ().isEmpty ();
+  }
+
+  static void applyValidationError (final IJsonObject response, final String message, final long startTime)
+  {
+    PhiveJsonHelper.applyGlobalError (response, message, elapsedMs (startTime));
+  }
+
+  static long elapsedMs (final long startTime)
+  {
+    return TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - startTime);
+  }
+}
@@ -0,0 +1,41 @@
+package com.phive.validation.api;
+
+/**
+ * Reads numeric settings from environment variables. Missing, malformed or
+ * out-of-range values fall back to the default.
+ */
+final class EnvConfig
+{
+  private EnvConfig ()
+  {}
+
+  static int parseIntEnv (final String envName, final int defaultValue)
+  {
+    return parseIntEnv (envName, defaultValue, 1);
+  }
+
+  /**
+   * Like {@link #parseIntEnv(String, int)}, but keeps <code>0</code>, which
+   * disables the limit or feature configured by the variable.
+   */
+  static int parseNonNegativeIntEnv (final String envName, final int defaultValue)
+  {
+    return parseIntEnv (envName, defaultValue, 0);
+  }
+
+  private static int parseIntEnv (final String envName, final int defaultValue, final int minValue)
+  {
+    final String rawValue = System.getenv (envName);
+    if (rawValue == null || rawValue.trim ().isEmpty ())
+      return defaultValue;
+    try
+    {
+      final int value = Integer.parseInt (rawValue.trim ());
+      return value >= minValue ? value : defaultValue;
+    }
+    catch (final NumberFormatException ex)
+    {
+      return defaultValue;
+    }
+  }
+}
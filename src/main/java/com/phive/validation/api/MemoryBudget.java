@@ -0,0 +1,347 @@
+package com.phive.validation.api;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+/**
+ * Admission control by estimated memory use. Every request is estimated as
+ * <code>base + factor * upload size</code> before it is admitted, with a factor
+ * per VESID that is learned from the bytes the validation actually allocated
+ * on its worker thread. Underestimates raise the factor quickly, overestimates
+ * lower it slowly.
+ * <p>
+ * With <code>MEMORY_BUDGET_MB</code> set, the estimates of all running
+ * validations may not exceed that budget: a request that does not fit waits
+ * for running ones to finish and is rejected with 503 once the maximum queue
+ * wait of its lane, which also covers the wait for a worker, is used up. A
+ * request larger than the whole budget runs alone. The bulk lane may only use
+ * <code>MEMORY_BULK_SHARE_PERCENT</code> of the budget (default 75), so bulk
+ * traffic cannot take the memory interactive requests need; interactive
+ * requests may use the whole budget.
+ * <p>
+ * Allocation includes short-lived garbage and is well above the live heap of
+ * a validation, so the budget is usually set to a multiple of the heap.
+ * Without a budget nothing is deferred, but estimates and actual usage are
+ * still tracked, so the model can be checked before it is enforced.
+ */
+final class MemoryBudget
+{
+  private static final long MB = 1024L * 1024L;
+
+  private static final long BUDGET_BYTES = EnvConfig.parseNonNegativeIntEnv ("MEMORY_BUDGET_MB", 0) * MB;
+  private static final int DEFAULT_FACTOR = EnvConfig.parseIntEnv ("MEMORY_DEFAULT_FACTOR", 600);
+  private static final int BULK_SHARE_PERCENT = Math.min (100, EnvConfig.parseIntEnv ("MEMORY_BULK_SHARE_PERCENT", 75));
+
+  /** Allocation of a validation independent of the document size. */
+  private static final long BASE_BYTES = 4 * MB;
+  /** Smaller uploads are dominated by the base and do not train the factor. */
+  private static final long MIN_LEARNING_BYTES = 64 * 1024;
+  private static final double INCREASE_RATE = 0.5;
+  private static final double DECREASE_RATE = 0.1;
+
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean ();
+  private static final boolean ALLOCATION_SUPPORTED = enableAllocationMeasurement ();
+
+  /** Learned model and accuracy of one VESID. */
+  private static final class RuleModel
+  {
+    private double factor;
+    private long samples;
+    private long estimatedBytes;
+    private long actualBytes;
+    private long underestimates;
+    private double maxActualToEstimate;
+
+    RuleModel (final double factor)
+    {
+      this.factor = factor;
+    }
+
+    synchronized void record (final long uploadBytes, final long estimate, final long actual)
+    {
+      samples++;
+      estimatedBytes += estimate;
+      actualBytes += actual;
+      if (actual > estimate)
+        underestimates++;
+      if (estimate > 0)
+        maxActualToEstimate = Math.max (maxActualToEstimate, (double) actual / estimate);
+
+      if (uploadBytes >= MIN_LEARNING_BYTES)
+      {
+        final double observed = Math.max (1, (double) (actual - BASE_BYTES) / uploadBytes);
+        factor += (observed > factor ? INCREASE_RATE : DECREASE_RATE) * (observed - factor);
+      }
+    }
+
+    synchronized double getFactor ()
+    {
+      return factor;
+    }
+
+    synchronized IJsonObject getAsJson ()
+    {
+      final IJsonObject json = new JsonObject ();
+      json.add ("factor", Math.round (factor));
+      json.add ("samples", samples);
+      json.add ("estimatedBytes", estimatedBytes);
+      json.add ("actualBytes", actualBytes);
+      json.add ("underestimates", underestimates);
+      json.add ("maxActualToEstimate", Math.round (maxActualToEstimate * 100) / 100.0);
+      return json;
+    }
+  }
+
+  /**
+   * Memory reserved for one request. The worker calls {@link #start()} and
+   * {@link #finish(boolean)}; a reservation whose task never started is
+   * released by the caller with {@link #releaseIfNotStarted()}.
+   */
+  final class Reservation
+  {
+    private final String rule;
+    private final long uploadBytes;
+    private final long estimatedBytes;
+    private final boolean bulk;
+    private final AtomicBoolean started = new AtomicBoolean (false);
+    private final AtomicBoolean released = new AtomicBoolean (false);
+    private long allocatedAtStart;
+
+    private Reservation (final String rule, final long uploadBytes, final long estimatedBytes, final boolean bulk)
+    {
+      this.rule = rule;
+      this.uploadBytes = uploadBytes;
+      this.estimatedBytes = estimatedBytes;
+      this.bulk = bulk;
+    }
+
+    long getEstimatedBytes ()
+    {
+      return estimatedBytes;
+    }
+
+    /** Called on the worker thread before the validation. */
+    void start ()
+    {
+      started.set (true);
+      allocatedAtStart = getCurrentThreadAllocatedBytes ();
+    }
+
+    /**
+     * Called on the worker thread after the validation. Releases the
+     * reservation and trains the model of the rule.
+     *
+     * @param learn
+     *        <code>false</code> for requests that did not reach the validation
+     *        layers, e.g. because the rule is unknown.
+     */
+    void finish (final boolean learn)
+    {
+      final long actualBytes = ALLOCATION_SUPPORTED ? getCurrentThreadAllocatedBytes () - allocatedAtStart : -1;
+      release ();
+      if (learn && actualBytes >= 0 && rule != null)
+      {
+        models.computeIfAbsent (rule, key -> new RuleModel (DEFAULT_FACTOR)).record (uploadBytes, estimatedBytes, actualBytes);
+        logger.debug ("Memory estimate for '{}' ({} bytes uploaded): {} bytes estimated, {} bytes allocated",
+                      rule,
+                      uploadBytes,
+                      estimatedBytes,
+                      actualBytes);
+      }
+    }
+
+    void releaseIfNotStarted ()
+    {
+      if (!started.get ())
+        release ();
+    }
+
+    private void release ()
+    {
+      if (!released.compareAndSet (false, true))
+        return;
+      lock.lock ();
+      try
+      {
+        reservedBytes -= estimatedBytes;
+        inFlight--;
+        if (bulk)
+        {
+          bulkReservedBytes -= estimatedBytes;
+          bulkInFlight--;
+        }
+        freed.signalAll ();
+      }
+      finally
+      {
+        lock.unlock ();
+      }
+    }
+  }
+
+  private final Logger logger;
+  private final long budgetBytes;
+  private final long bulkBudgetBytes;
+  private final Map<String, RuleModel> models = new ConcurrentHashMap<> ();
+
+  private final ReentrantLock lock = new ReentrantLock ();
+  private final Condition freed = lock.newCondition ();
+  private long reservedBytes;
+  private long peakReservedBytes;
+  private int inFlight;
+  private long bulkReservedBytes;
+  private int bulkInFlight;
+  private long admittedCount;
+  private long deferredCount;
+  private long rejectedCount;
+
+  MemoryBudget (final Logger logger)
+  {
+    this (logger, BUDGET_BYTES, BULK_SHARE_PERCENT);
+  }
+
+  MemoryBudget (final Logger logger, final long budgetBytes, final int bulkSharePercent)
+  {
+    this.logger = logger;
+    this.budgetBytes = budgetBytes;
+    this.bulkBudgetBytes = budgetBytes * bulkSharePercent / 100;
+  }
+
+  boolean isEnforced ()
+  {
+    return budgetBytes > 0;
+  }
+
+  private static boolean enableAllocationMeasurement ()
+  {
+    if (!(THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean))
+      return false;
+    final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+    if (!bean.isThreadAllocatedMemorySupported ())
+      return false;
+    if (!bean.isThreadAllocatedMemoryEnabled ())
+      bean.setThreadAllocatedMemoryEnabled (true);
+    return true;
+  }
+
+  private static long getCurrentThreadAllocatedBytes ()
+  {
+    return ALLOCATION_SUPPORTED ? ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getCurrentThreadAllocatedBytes () : 0;
+  }
+
+  long estimate (final String rule, final long uploadBytes)
+  {
+    final RuleModel model = rule != null ? models.get (rule) : null;
+    final double factor = model != null ? model.getFactor () : DEFAULT_FACTOR;
+    return BASE_BYTES + (long) (factor * Math.max (0, uploadBytes));
+  }
+
+  /**
+   * Reserves the estimated memory of a request, waiting up to
+   * <code>maxWaitMs</code> for running validations to free enough of the
+   * budget, or of the bulk share for requests on the bulk lane.
+   *
+   * @throws ValidationLane.RejectedException
+   *         if the budget did not allow the request in time.
+   */
+  Reservation reserve (final String rule, final long uploadBytes, final String laneName, final long maxWaitMs) throws ValidationLane.RejectedException,
+                                                                                                                 InterruptedException
+  {
+    final Reservation reservation = new Reservation (rule,
+                                                     uploadBytes,
+                                                     estimate (rule, uploadBytes),
+                                                     ValidationLanes.LANE_BULK.equals (laneName));
+    final long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (maxWaitMs);
+    lock.lock ();
+    try
+    {
+      boolean deferred = false;
+      while (isEnforced () && !fits (reservation))
+      {
+        final long remaining = deadline - System.nanoTime ();
+        if (remaining <= 0)
+        {
+          rejectedCount++;
+          throw new ValidationLane.RejectedException (laneName,
+                                                      "memory budget: " + reservation.estimatedBytes / MB +
+                                                                " MB estimated, " +
+                                                                (reservation.bulk ? bulkReservedBytes : reservedBytes) / MB +
+                                                                " of " +
+                                                                (reservation.bulk ? bulkBudgetBytes : budgetBytes) / MB +
+                                                                " MB reserved",
+                                                      (int) Math.max (1, TimeUnit.MILLISECONDS.toSeconds (maxWaitMs)));
+        }
+        if (!deferred)
+        {
+          deferred = true;
+          deferredCount++;
+        }
+        freed.awaitNanos (remaining);
+      }
+      reservedBytes += reservation.estimatedBytes;
+      peakReservedBytes = Math.max (peakReservedBytes, reservedBytes);
+      inFlight++;
+      if (reservation.bulk)
+      {
+        bulkReservedBytes += reservation.estimatedBytes;
+        bulkInFlight++;
+      }
+      admittedCount++;
+      return reservation;
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * A request larger than the whole budget runs once nothing else does, a bulk
+   * request larger than the bulk share once no other bulk request does.
+   */
+  private boolean fits (final Reservation reservation)
+  {
+    if (inFlight > 0 && reservedBytes + reservation.estimatedBytes > budgetBytes)
+      return false;
+    return !reservation.bulk || bulkInFlight == 0 || bulkReservedBytes + reservation.estimatedBytes <= bulkBudgetBytes;
+  }
+
+  IJsonObject buildStatusResponse ()
+  {
+    final IJsonObject json = new JsonObject ();
+    json.add ("budgetBytes", budgetBytes);
+    json.add ("bulkBudgetBytes", bulkBudgetBytes);
+    json.add ("allocationMeasured", ALLOCATION_SUPPORTED);
+    lock.lock ();
+    try
+    {
+      json.add ("reservedBytes", reservedBytes);
+      json.add ("bulkReservedBytes", bulkReservedBytes);
+      json.add ("peakReservedBytes", peakReservedBytes);
+      json.add ("inFlight", inFlight);
+      json.add ("admitted", admittedCount);
+      json.add ("deferred", deferredCount);
+      json.add ("rejected", rejectedCount);
+    }
+    finally
+    {
+      lock.unlock ();
+    }
+    final IJsonObject rules = new JsonObject ();
+    new TreeMap<> (models).forEach ( (rule, model) -> rules.add (rule, model.getAsJson ()));
+    json.add ("rules", rules);
+    return json;
+  }
+}
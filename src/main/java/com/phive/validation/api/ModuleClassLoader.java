@@ -0,0 +1,178 @@
+package com.phive.validation.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.slf4j.Logger;
+
+/**
+ * Child-first class loader over the jars of an external module directory. Rule
+ * module classes and their rule resources are resolved from the directory
+ * first, so a newer phive-rules version can replace the bundled one. The PHIVE
+ * core packages stay parent-first to keep the registry types shared with the
+ * web application.
+ * <p>
+ * Every loader reads private copies of the jars, which are deleted when it is
+ * closed. Rule resources of each load therefore have their own URLs, so the
+ * schema and Schematron caches, keyed by resource URL or class loader, never
+ * serve the rules of another load, and jars replaced in the directory do not
+ * affect a loader still in use.
+ */
+final class ModuleClassLoader extends URLClassLoader
+{
+  private static final String [] PARENT_FIRST_PREFIXES = { "java.",
+                                                           "javax.",
+                                                           "jakarta.",
+                                                           "org.slf4j.",
+                                                           "org.w3c.",
+                                                           "org.xml.",
+                                                           "com.helger.phive.api.",
+                                                           "com.helger.phive.xml.",
+                                                           "com.helger.phive.result.",
+                                                           "com.phive.validation." };
+  private static final String CHILD_FIRST_PREFIX = "com.helger.phive.";
+
+  static
+  {
+    ClassLoader.registerAsParallelCapable ();
+  }
+
+  private final Path copyDir;
+
+  private ModuleClassLoader (final URL [] urls, final ClassLoader parent, final Path copyDir)
+  {
+    super ("phive-modules", urls, parent);
+    this.copyDir = copyDir;
+  }
+
+  /**
+   * @return a child-first loader over copies of all jars in the directory, or
+   *         the parent itself if the directory is not set or contains no jars.
+   * @throws UncheckedIOException
+   *         if the jars could not be copied.
+   */
+  static ClassLoader createOrParent (final String moduleDir, final ClassLoader parent, final Logger logger)
+  {
+    if (moduleDir == null || moduleDir.trim ().isEmpty ())
+      return parent;
+
+    final File dir = new File (moduleDir.trim ());
+    final File [] jars = dir.listFiles ( (d, name) -> name.endsWith (".jar"));
+    if (jars == null || jars.length == 0)
+    {
+      logger.warn ("Module directory '{}' does not exist or contains no jars - using bundled modules", dir);
+      return parent;
+    }
+
+    Arrays.sort (jars);
+    Path copyDir = null;
+    try
+    {
+      copyDir = Files.createTempDirectory ("phive-modules-");
+      final List<URL> urls = new ArrayList<> ();
+      for (final File jar : jars)
+        urls.add (Files.copy (jar.toPath (), copyDir.resolve (jar.getName ()), StandardCopyOption.COPY_ATTRIBUTES).toUri ().toURL ());
+
+      logger.info ("Loading validation modules from '{}' ({} jars, copied to '{}')", dir, urls.size (), copyDir);
+      return new ModuleClassLoader (urls.toArray (new URL [0]), parent, copyDir);
+    }
+    catch (final IOException ex)
+    {
+      deleteCopies (copyDir);
+      throw new UncheckedIOException ("Failed to copy the jars of module directory '" + dir + "'", ex);
+    }
+  }
+
+  Path getCopyDirectory ()
+  {
+    return copyDir;
+  }
+
+  /** Closes the jars and deletes their copies. */
+  @Override
+  public void close () throws IOException
+  {
+    try
+    {
+      super.close ();
+    }
+    finally
+    {
+      deleteCopies (copyDir);
+    }
+  }
+
+  private static void deleteCopies (final Path copyDir)
+  {
+    if (copyDir == null)
+      return;
+    final File [] files = copyDir.toFile ().listFiles ();
+    if (files != null)
+      for (final File file : files)
+        file.delete ();
+    copyDir.toFile ().delete ();
+  }
+
+  private static boolean isChildFirst (final String className)
+  {
+    for (final String prefix : PARENT_FIRST_PREFIXES)
+      if (className.startsWith (prefix))
+        return false;
+    return className.startsWith (CHILD_FIRST_PREFIX);
+  }
+
+  @Override
+  protected Class<?> loadClass (final String name, final boolean resolve) throws ClassNotFoundException
+  {
+    if (!isChildFirst (name))
+      return super.loadClass (name, resolve);
+
+    synchronized (getClassLoadingLock (name))
+    {
+      Class<?> clazz = findLoadedClass (name);
+      if (clazz == null)
+        try
+        {
+          clazz = findClass (name);
+        }
+        catch (final ClassNotFoundException ex)
+        {
+          clazz = super.loadClass (name, false);
+        }
+      if (resolve)
+        resolveClass (clazz);
+      return clazz;
+    }
+  }
+
+  @Override
+  public URL getResource (final String name)
+  {
+    final URL own = findResource (name);
+    return own != null ? own : super.getResource (name);
+  }
+
+  /**
+   * Child-first like {@link #getResource(String)}: the resources of the module
+   * jars come before those of the parent.
+   */
+  @Override
+  public Enumeration<URL> getResources (final String name) throws IOException
+  {
+    final List<URL> urls = Collections.list (findResources (name));
+    final ClassLoader parent = getParent ();
+    urls.addAll (Collections.list (parent != null ? parent.getResources (name) : ClassLoader.getSystemResources (name)));
+    return Collections.enumeration (urls);
+  }
+}
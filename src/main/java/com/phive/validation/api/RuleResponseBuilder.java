@@ -38,9 +38,9 @@ final class RuleResponseBuilder
     final IJsonObject response = new JsonObject ();
     response.add ("service", "PHIVE Validation API");
     response.add ("version", "1.2.0");
-    response.add ("status", "running");
+    response.add ("status", registry != null ? "running" : "starting");
     response.add ("buildType", "Local phive-rules (ALL 27 MODULES)");
-    response.add ("availableRules", registry.getAll ().size ());
+    response.add ("availableRules", registry != null ? registry.getAll ().size () : 0);
     response.add ("standards",
                   "All phive-rules modules: EN16931, Peppol, UBL, CII, XRechnung, ZUGFeRD, fatturaPA, OIOUBL, EHF, ebInterface, and 17 more...");
     return response;
@@ -0,0 +1,357 @@
+package com.phive.validation.api;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+
+import com.helger.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.json.IJson;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.json.serialize.JsonReader;
+import com.helger.json.serialize.JsonWriterSettings;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.result.json.PhiveJsonHelper;
+import com.helger.phive.xml.source.IValidationSourceXML;
+
+/**
+ * Validates a continuous feed of documents sent as NDJSON in one request. Each
+ * input line is an object with <code>id</code>, <code>rule</code> and either
+ * <code>content</code> (base64) or <code>xml</code>. Results are written as
+ * NDJSON in completion order, each tagged with the client's <code>id</code>
+ * and the number of its input <code>line</code>, followed by one summary line.
+ * <p>
+ * At most <code>STREAM_MAX_IN_FLIGHT</code> documents are decoded or being
+ * validated at any time. Once that limit is reached the request body is not
+ * read any further, so memory stays bounded for streams of any length and the
+ * client is slowed down by TCP flow control. Each document is also admitted
+ * against the {@link MemoryBudget} before it is decoded.
+ */
+final class StreamValidationHandler
+{
+  private static final int MAX_IN_FLIGHT = EnvConfig.parseIntEnv ("STREAM_MAX_IN_FLIGHT", 4);
+  private static final int MAX_LINE_CHARS = EnvConfig.parseIntEnv ("STREAM_MAX_LINE_CHARS", 8 * 1024 * 1024);
+
+  private static final String PATH = "/validate-stream";
+
+  private static final String FIELD_ID = "id";
+  private static final String FIELD_RULE = "rule";
+  private static final String FIELD_CONTENT = "content";
+  private static final String FIELD_XML = "xml";
+  private static final String FIELD_FILE_NAME = "fileName";
+  private static final String FIELD_LINE = "line";
+
+  private final Logger logger;
+  private final DocumentValidator documentValidator;
+  private final MemoryBudget memoryBudget;
+
+  StreamValidationHandler (final Logger logger, final MemoryBudget memoryBudget)
+  {
+    this.logger = logger;
+    this.documentValidator = new DocumentValidator (logger);
+    this.memoryBudget = memoryBudget;
+  }
+
+  void handleStreamRequest (final HttpServletRequest request,
+                            final HttpServletResponse response,
+                            final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
+                            final ValidationLane lane) throws IOException, InterruptedException
+  {
+    final long streamStartTime = System.nanoTime ();
+    response.setContentType ("application/x-ndjson");
+    response.setCharacterEncoding (StandardCharsets.UTF_8.name ());
+
+    final PrintWriter writer = response.getWriter ();
+    final Semaphore inFlight = new Semaphore (MAX_IN_FLIGHT);
+    final AtomicBoolean clientGone = new AtomicBoolean (false);
+    final AtomicInteger received = new AtomicInteger ();
+    final AtomicInteger valid = new AtomicInteger ();
+    final AtomicInteger invalid = new AtomicInteger ();
+
+    try (BufferedReader reader = new BufferedReader (new InputStreamReader (request.getInputStream (), StandardCharsets.UTF_8)))
+    {
+      final StringBuilder line = new StringBuilder ();
+      int lineNumber = 0;
+      while (!clientGone.get ())
+      {
+        line.setLength (0);
+        final LineStatus status = readLine (reader, line);
+        if (status == LineStatus.EOF)
+          break;
+        lineNumber++;
+        if (status == LineStatus.OK && line.toString ().isBlank ())
+          continue;
+
+        received.incrementAndGet ();
+        inFlight.acquire ();
+        final long startTime = System.nanoTime ();
+
+        if (status == LineStatus.TOO_LONG)
+        {
+          final IJsonObject result = new JsonObject ();
+          DocumentValidator.applyValidationError (result,
+                                                  "Line " + lineNumber + " exceeds the maximum of " + MAX_LINE_CHARS + " characters",
+                                                  startTime);
+          try
+          {
+            complete (writer, result, null, lineNumber, clientGone, invalid);
+          }
+          finally
+          {
+            inFlight.release ();
+          }
+          continue;
+        }
+
+        final String rawLine = line.toString ();
+        final int currentLine = lineNumber;
+        try
+        {
+          lane.submit ( () -> {
+            final IJsonObject result = new JsonObject ();
+            String id = null;
+            String rule = null;
+            long documentBytes = 0;
+            try
+            {
+              final IJson parsed = JsonReader.readFromString (rawLine);
+              if (parsed == null || !parsed.isObject ())
+                DocumentValidator.applyValidationError (result, "Line " + currentLine + " is not a JSON object", startTime);
+              else
+              {
+                id = parsed.getAsObject ().getAsString (FIELD_ID);
+                rule = parsed.getAsObject ().getAsString (FIELD_RULE);
+                documentBytes = validateDocument (parsed.getAsObject (), registry, lane, result, startTime);
+              }
+            }
+            catch (final RuntimeException ex)
+            {
+              logger.error ("Error during stream validation of line {}", currentLine, ex);
+              DocumentValidator.applyValidationError (result,
+                                                      "Internal error occurred while processing validation request.",
+                                                      startTime);
+            }
+            finally
+            {
+              try
+              {
+                if (AccessLog.isEnabled ())
+                  AccessLog.log (PATH,
+                                 lane.getName (),
+                                 rule,
+                                 documentBytes,
+                                 DocumentValidator.elapsedMs (startTime),
+                                 AccessLog.getOutcome (result));
+                complete (writer, result, id, currentLine, clientGone, AccessLog.isSuccess (result) ? valid : invalid);
+              }
+              finally
+              {
+                // Released whatever happened, the end of the stream waits for all permits
+                inFlight.release ();
+              }
+            }
+          });
+        }
+        catch (final ValidationLane.RejectedException ex)
+        {
+          final IJsonObject result = new JsonObject ();
+          DocumentValidator.applyValidationError (result, ex.getMessage (), startTime);
+          try
+          {
+            complete (writer, result, null, currentLine, clientGone, invalid);
+          }
+          finally
+          {
+            inFlight.release ();
+          }
+        }
+        catch (final InterruptedException | RuntimeException | Error ex)
+        {
+          // The task was not handed over, so its permit is still held here
+          inFlight.release ();
+          throw ex;
+        }
+      }
+    }
+    finally
+    {
+      inFlight.acquire (MAX_IN_FLIGHT);
+    }
+
+    final IJsonObject summary = new JsonObject ();
+    summary.add ("received", received.get ());
+    summary.add ("valid", valid.get ());
+    summary.add ("invalid", invalid.get ());
+    summary.add ("durationMs", DocumentValidator.elapsedMs (streamStartTime));
+    final IJsonObject summaryLine = new JsonObject ();
+    summaryLine.add ("summary", summary);
+    writeLine (writer, summaryLine, clientGone);
+  }
+
+  /**
+   * @return the size of the decoded document in bytes, 0 if it could not be
+   *         decoded.
+   */
+  private long validateDocument (final IJsonObject document,
+                                 final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
+                                 final ValidationLane lane,
+                                 final IJsonObject result,
+                                 final long startTime)
+  {
+    final String rule = document.getAsString (FIELD_RULE);
+    final IValidationExecutorSet<IValidationSourceXML> executors = documentValidator.resolveExecutorSet (registry,
+                                                                                                        rule,
+                                                                                                        result,
+                                                                                                        startTime);
+    if (executors == null)
+      return 0;
+
+    final String base64 = document.getAsString (FIELD_CONTENT);
+    final String xml = document.getAsString (FIELD_XML);
+    if (base64 == null && xml == null)
+    {
+      DocumentValidator.applyValidationError (result,
+                                              "Missing required field 'content' (base64) or 'xml'. Please provide the document to validate.",
+                                              startTime);
+      return 0;
+    }
+
+    final MemoryBudget.Reservation reservation;
+    try
+    {
+      // Decoded size, known before decoding
+      reservation = memoryBudget.reserve (rule,
+                                          base64 != null ? base64.length () / 4L * 3 : xml.length (),
+                                          lane.getName (),
+                                          lane.getMaxQueueWaitMs ());
+    }
+    catch (final ValidationLane.RejectedException ex)
+    {
+      DocumentValidator.applyValidationError (result, ex.getMessage (), startTime);
+      return 0;
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      DocumentValidator.applyValidationError (result, "Stream validation interrupted", startTime);
+      return 0;
+    }
+    reservation.start ();
+    try
+    {
+      return validateContent (document, rule, executors, base64, xml, result, startTime);
+    }
+    finally
+    {
+      reservation.finish (result.containsKey (PhiveJsonHelper.JSON_VES));
+    }
+  }
+
+  private long validateContent (final IJsonObject document,
+                                final String rule,
+                                final IValidationExecutorSet<IValidationSourceXML> executors,
+                                final String base64,
+                                final String xml,
+                                final IJsonObject result,
+                                final long startTime)
+  {
+    final byte [] content;
+    if (base64 != null)
+      try
+      {
+        content = Base64.getDecoder ().decode (base64);
+      }
+      catch (final IllegalArgumentException ex)
+      {
+        DocumentValidator.applyValidationError (result, "Field 'content' is not valid base64: " + ex.getMessage (), startTime);
+        return 0;
+      }
+    else
+      content = xml.getBytes (StandardCharsets.UTF_8);
+
+    final String id = document.getAsString (FIELD_ID);
+    final String fileName = document.getAsString (FIELD_FILE_NAME);
+    documentValidator.validate (result,
+                                startTime,
+                                rule,
+                                executors,
+                                new ReadableResourceByteArray (id != null ? id : "stream-document", content, false),
+                                fileName != null ? fileName : "stream-document.xml",
+                                ValidationBudget.create (startTime, rule, null));
+    return content.length;
+  }
+
+  private static void complete (final PrintWriter writer,
+                                final IJsonObject result,
+                                final String id,
+                                final int lineNumber,
+                                final AtomicBoolean clientGone,
+                                final AtomicInteger counter)
+  {
+    if (id != null)
+      result.add (FIELD_ID, id);
+    result.add (FIELD_LINE, lineNumber);
+    counter.incrementAndGet ();
+    writeLine (writer, result, clientGone);
+  }
+
+  private static void writeLine (final PrintWriter writer, final IJsonObject json, final AtomicBoolean clientGone)
+  {
+    synchronized (writer)
+    {
+      writer.print (json.getAsJsonString (JsonWriterSettings.DEFAULT_SETTINGS));
+      writer.print ('\n');
+      writer.flush ();
+      if (writer.checkError ())
+        clientGone.set (true);
+    }
+  }
+
+  private enum LineStatus
+  {
+    OK,
+    TOO_LONG,
+    EOF
+  }
+
+  /**
+   * Reads one line without ever buffering more than the configured maximum.
+   * The rest of an over-long line is skipped.
+   */
+  private static LineStatus readLine (final Reader reader, final StringBuilder target) throws IOException
+  {
+    boolean tooLong = false;
+    int c = reader.read ();
+    if (c == -1)
+      return LineStatus.EOF;
+
+    while (c != -1 && c != '\n')
+    {
+      if (c != '\r' && !tooLong)
+      {
+        if (target.length () >= MAX_LINE_CHARS)
+        {
+          tooLong = true;
+          target.setLength (0);
+        }
+        else
+          target.append ((char) c);
+      }
+      c = reader.read ();
+    }
+    return tooLong ? LineStatus.TOO_LONG : LineStatus.OK;
+  }
+}
@@ -0,0 +1,149 @@
+package com.phive.validation.api;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.api.result.ValidationResultList;
+
+/**
+ * Time budget of one validation. The deadline starts with the request, so
+ * queue time counts against it. Layers are only started while the budget
+ * lasts, and every finished layer is recorded here so that a caller which
+ * stops waiting can still report the layers that completed in time.
+ * <p>
+ * The budget is <code>VALIDATION_TIMEOUT_MS</code> (default 60000, 0 disables
+ * it), optionally replaced per VESID prefix via
+ * <code>VALIDATION_TIMEOUT_OVERRIDES</code> (e.g.
+ * <code>de.xrechnung=120000,eu.peppol=30000</code>). A client may ask for a
+ * shorter budget with the <code>X-Validation-Timeout-Ms</code> header, never a
+ * longer one.
+ */
+final class ValidationBudget
+{
+  static final String TIMEOUT_HEADER = "X-Validation-Timeout-Ms";
+
+  private static final long DEFAULT_TIMEOUT_MS = parseLong (System.getenv ("VALIDATION_TIMEOUT_MS"), 60000);
+  private static final Map<String, Long> TIMEOUT_OVERRIDES = parseOverrides (System.getenv ("VALIDATION_TIMEOUT_OVERRIDES"));
+
+  private final long budgetMs;
+  private final long deadlineNanos;
+  private final ValidationResultList completedResults = new ValidationResultList (null);
+  private volatile boolean cancelled;
+
+  ValidationBudget (final long startTime, final long budgetMs)
+  {
+    this.budgetMs = budgetMs;
+    this.deadlineNanos = budgetMs > 0 ? startTime + TimeUnit.MILLISECONDS.toNanos (budgetMs) : Long.MAX_VALUE;
+  }
+
+  /**
+   * Creates the budget for a rule, honoring a shorter budget requested by the
+   * client.
+   */
+  static ValidationBudget create (final long startTime, final String rule, final String requestedMs)
+  {
+    long budgetMs = getConfiguredBudgetMs (rule);
+    final long requested = parseLong (requestedMs, 0);
+    if (requested > 0 && (budgetMs <= 0 || requested < budgetMs))
+      budgetMs = requested;
+    return new ValidationBudget (startTime, budgetMs);
+  }
+
+  private static long getConfiguredBudgetMs (final String rule)
+  {
+    if (rule != null)
+    {
+      String bestPrefix = null;
+      for (final String prefix : TIMEOUT_OVERRIDES.keySet ())
+        if (rule.startsWith (prefix) && (bestPrefix == null || prefix.length () > bestPrefix.length ()))
+          bestPrefix = prefix;
+      if (bestPrefix != null)
+        return TIMEOUT_OVERRIDES.get (bestPrefix);
+    }
+    return DEFAULT_TIMEOUT_MS;
+  }
+
+  long getBudgetMs ()
+  {
+    return budgetMs;
+  }
+
+  boolean isLimited ()
+  {
+    return budgetMs > 0;
+  }
+
+  /**
+   * @return <code>true</code> if the deadline passed or the waiting caller gave
+   *         up on this validation.
+   */
+  boolean isExhausted ()
+  {
+    return cancelled || System.nanoTime () - deadlineNanos >= 0;
+  }
+
+  long getRemainingMs ()
+  {
+    if (!isLimited ())
+      return Long.MAX_VALUE;
+    return Math.max (0, TimeUnit.NANOSECONDS.toMillis (deadlineNanos - System.nanoTime ()));
+  }
+
+  void cancel ()
+  {
+    cancelled = true;
+  }
+
+  void recordCompleted (final ValidationResult result)
+  {
+    synchronized (completedResults)
+    {
+      completedResults.add (result);
+    }
+  }
+
+  ValidationResultList getCompletedResults ()
+  {
+    synchronized (completedResults)
+    {
+      final ValidationResultList ret = new ValidationResultList (null);
+      ret.addAll (completedResults);
+      return ret;
+    }
+  }
+
+  private static long parseLong (final String value, final long defaultValue)
+  {
+    if (value == null || value.trim ().isEmpty ())
+      return defaultValue;
+    try
+    {
+      return Long.parseLong (value.trim ());
+    }
+    catch (final NumberFormatException ex)
+    {
+      return defaultValue;
+    }
+  }
+
+  private static Map<String, Long> parseOverrides (final String envValue)
+  {
+    if (envValue == null || envValue.trim ().isEmpty ())
+      return Collections.emptyMap ();
+
+    final Map<String, Long> ret = new LinkedHashMap<> ();
+    for (final String entry : envValue.split (","))
+    {
+      final int separator = entry.lastIndexOf ('=');
+      if (separator <= 0)
+        continue;
+      final long value = parseLong (entry.substring (separator + 1), -1);
+      if (value >= 0)
+        ret.put (entry.substring (0, separator).trim (), value);
+    }
+    return Collections.unmodifiableMap (ret);
+  }
+}
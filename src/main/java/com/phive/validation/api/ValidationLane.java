@@ -0,0 +1,285 @@
+package com.phive.validation.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+/**
+ * A request class with its own bounded worker pool. The pool size caps how many
+ * validations of this class run at once, the queue caps how many may wait, and
+ * a task that has not started within the lane's maximum queue wait is withdrawn
+ * and rejected instead of running late.
+ * <p>
+ * A task that exceeds its budget is interrupted, but a running layer does not
+ * necessarily react to that. Such an abandoned worker is replaced by an extra
+ * thread until it finishes, up to as many extra threads as the lane has
+ * regular ones, so runaway documents cannot take the whole lane.
+ */
+final class ValidationLane
+{
+  static final class RejectedException extends Exception
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final String laneName;
+    private final int retryAfterSeconds;
+
+    RejectedException (final String laneName, final String reason, final int retryAfterSeconds)
+    {
+      super ("Validation lane '" + laneName + "' is saturated (" + reason + "). Please retry later.");
+      this.laneName = laneName;
+      this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    String getLaneName ()
+    {
+      return laneName;
+    }
+
+    int getRetryAfterSeconds ()
+    {
+      return retryAfterSeconds;
+    }
+  }
+
+  /** Extra wait after the deadline so a layer finishing just in time is not discarded. */
+  private static final long TIMEOUT_GRACE_MS = 250;
+
+  private static final int TASK_RUNNING = 0;
+  private static final int TASK_DONE = 1;
+  private static final int TASK_ABANDONED = 2;
+
+  private final String name;
+  private final int threads;
+  private final ThreadPoolExecutor executor;
+  private final long maxQueueWaitMs;
+  private final AtomicLong completedCount = new AtomicLong ();
+  private final AtomicLong rejectedCount = new AtomicLong ();
+  private final AtomicLong timedOutCount = new AtomicLong ();
+  private final AtomicLong abandonedCount = new AtomicLong ();
+  private int abandonedRunning;
+
+  ValidationLane (final String name, final int threads, final int queueCapacity, final long maxQueueWaitMs)
+  {
+    this.name = name;
+    this.threads = threads;
+    this.maxQueueWaitMs = maxQueueWaitMs;
+    this.executor = new ThreadPoolExecutor (threads,
+                                            threads,
+                                            60,
+                                            TimeUnit.SECONDS,
+                                            new ArrayBlockingQueue<> (Math.max (1, queueCapacity)),
+                                            createThreadFactory (name));
+    this.executor.allowCoreThreadTimeOut (true);
+  }
+
+  private static ThreadFactory createThreadFactory (final String laneName)
+  {
+    final AtomicInteger counter = new AtomicInteger ();
+    return runnable -> {
+      final Thread thread = new Thread (runnable, "phive-lane-" + laneName + "-" + counter.incrementAndGet ());
+      thread.setDaemon (true);
+      return thread;
+    };
+  }
+
+  String getName ()
+  {
+    return name;
+  }
+
+  long getMaxQueueWaitMs ()
+  {
+    return maxQueueWaitMs;
+  }
+
+  /**
+   * Runs the task on this lane and waits for its result on the calling thread.
+   *
+   * @throws RejectedException
+   *         if the queue is full or the task did not start within the maximum
+   *         queue wait. The task is guaranteed not to run in that case.
+   */
+  <T> T execute (final Callable<T> task) throws Exception
+  {
+    return execute (task, null);
+  }
+
+  /**
+   * Like {@link #execute(Callable)}, but stops waiting once the budget is
+   * exhausted. The budget is then cancelled and the worker interrupted, so the
+   * task skips all layers it has not started yet.
+   *
+   * @throws TimeoutException
+   *         if the task did not finish within the budget.
+   */
+  <T> T execute (final Callable<T> task, final ValidationBudget budget) throws Exception
+  {
+    return execute (task, budget, maxQueueWaitMs);
+  }
+
+  /**
+   * Like {@link #execute(Callable, ValidationBudget)}, but waits at most
+   * <code>queueWaitMs</code> for the task to start, for callers that already
+   * spent part of the maximum queue wait before.
+   */
+  <T> T execute (final Callable<T> task, final ValidationBudget budget, final long queueWaitMs) throws Exception
+  {
+    final AtomicBoolean claimed = new AtomicBoolean (false);
+    final CountDownLatch started = new CountDownLatch (1);
+    final AtomicInteger state = new AtomicInteger (TASK_RUNNING);
+    final FutureTask<T> future = new FutureTask<> ( () -> {
+      if (!claimed.compareAndSet (false, true))
+        return null;
+      started.countDown ();
+      try
+      {
+        return task.call ();
+      }
+      finally
+      {
+        if (!state.compareAndSet (TASK_RUNNING, TASK_DONE))
+          adjustAbandoned (-1);
+      }
+    });
+
+    try
+    {
+      executor.execute (future);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      throw reject ("queue full");
+    }
+
+    try
+    {
+      if (!started.await (queueWaitMs, TimeUnit.MILLISECONDS) && claimed.compareAndSet (false, true))
+      {
+        executor.remove (future);
+        throw reject ("queue wait exceeded " + maxQueueWaitMs + "ms");
+      }
+      final T result = budget == null || !budget.isLimited () ? future.get ()
+                                                               : future.get (budget.getRemainingMs () + TIMEOUT_GRACE_MS,
+                                                                             TimeUnit.MILLISECONDS);
+      completedCount.incrementAndGet ();
+      return result;
+    }
+    catch (final TimeoutException ex)
+    {
+      budget.cancel ();
+      future.cancel (true);
+      timedOutCount.incrementAndGet ();
+      if (state.compareAndSet (TASK_RUNNING, TASK_ABANDONED))
+        adjustAbandoned (1);
+      throw ex;
+    }
+    catch (final InterruptedException ex)
+    {
+      claimed.set (true);
+      future.cancel (true);
+      Thread.currentThread ().interrupt ();
+      throw ex;
+    }
+    catch (final ExecutionException ex)
+    {
+      completedCount.incrementAndGet ();
+      final Throwable cause = ex.getCause ();
+      if (cause instanceof Exception)
+        throw (Exception) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw ex;
+    }
+  }
+
+  /**
+   * Hands the task to this lane without waiting for it to run. While the queue
+   * is full the caller is held back for up to the maximum queue wait, which
+   * gives streaming callers natural backpressure.
+   *
+   * @throws RejectedException
+   *         if no queue space became available in time.
+   */
+  void submit (final Runnable task) throws RejectedException, InterruptedException
+  {
+    final Runnable counted = () -> {
+      try
+      {
+        task.run ();
+      }
+      finally
+      {
+        completedCount.incrementAndGet ();
+      }
+    };
+    if (!executor.getQueue ().offer (counted, maxQueueWaitMs, TimeUnit.MILLISECONDS))
+      throw reject ("queue full");
+    // A task put on the queue directly does not start a worker by itself
+    executor.prestartAllCoreThreads ();
+  }
+
+  /**
+   * Tracks workers still busy with a task whose caller has given up, and sizes
+   * the pool so that the regular number of threads stays available.
+   */
+  private synchronized void adjustAbandoned (final int delta)
+  {
+    abandonedRunning += delta;
+    if (delta > 0)
+      abandonedCount.incrementAndGet ();
+    final int size = threads + Math.min (abandonedRunning, threads);
+    if (size > executor.getMaximumPoolSize ())
+    {
+      executor.setMaximumPoolSize (size);
+      executor.setCorePoolSize (size);
+    }
+    else
+    {
+      executor.setCorePoolSize (size);
+      executor.setMaximumPoolSize (size);
+    }
+  }
+
+  private synchronized int getAbandonedRunning ()
+  {
+    return abandonedRunning;
+  }
+
+  private RejectedException reject (final String reason)
+  {
+    rejectedCount.incrementAndGet ();
+    final int retryAfterSeconds = (int) Math.max (1, TimeUnit.MILLISECONDS.toSeconds (maxQueueWaitMs));
+    return new RejectedException (name, reason, retryAfterSeconds);
+  }
+
+  IJsonObject buildStatusResponse ()
+  {
+    final IJsonObject json = new JsonObject ();
+    final int abandoned = getAbandonedRunning ();
+    json.add ("threads", threads);
+    json.add ("active", Math.max (0, executor.getActiveCount () - abandoned));
+    json.add ("abandoned", abandoned);
+    json.add ("queued", executor.getQueue ().size ());
+    json.add ("queueCapacity", executor.getQueue ().size () + executor.getQueue ().remainingCapacity ());
+    json.add ("maxQueueWaitMs", maxQueueWaitMs);
+    json.add ("completed", completedCount.get ());
+    json.add ("rejected", rejectedCount.get ());
+    json.add ("timedOut", timedOutCount.get ());
+    json.add ("abandonedTotal", abandonedCount.get ());
+    return json;
+  }
+}
@@ -0,0 +1,90 @@
+package com.phive.validation.api;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+/**
+ * Separates interactive validation traffic (browser UI, embed widget) from bulk
+ * integrations. Each class runs on its own {@link ValidationLane}, so a
+ * saturated bulk lane can neither take the interactive workers nor delay
+ * interactive requests beyond their queue wait target.
+ * <p>
+ * A request is bulk if it is sent to <code>/validate-bulk</code>, carries an
+ * API key listed in <code>BULK_API_KEYS</code> or sets the
+ * <code>X-Validation-Lane: bulk</code> header. Everything else is interactive.
+ */
+final class ValidationLanes
+{
+  static final String LANE_HEADER = "X-Validation-Lane";
+  static final String API_KEY_HEADER = "X-API-Key";
+
+  private static final String LANE_INTERACTIVE = "interactive";
+  static final String LANE_BULK = "bulk";
+
+  private static final int CPU_COUNT = Runtime.getRuntime ().availableProcessors ();
+  private static final Set<String> BULK_API_KEYS = parseList (System.getenv ("BULK_API_KEYS"));
+
+  private final ValidationLane interactiveLane;
+  private final ValidationLane bulkLane;
+
+  ValidationLanes (final Logger logger)
+  {
+    interactiveLane = new ValidationLane (LANE_INTERACTIVE,
+                                          EnvConfig.parseIntEnv ("LANE_INTERACTIVE_THREADS", Math.max (2, CPU_COUNT / 2)),
+                                          EnvConfig.parseIntEnv ("LANE_INTERACTIVE_QUEUE", 32),
+                                          EnvConfig.parseIntEnv ("LANE_INTERACTIVE_MAX_WAIT_MS", 2000));
+    bulkLane = new ValidationLane (LANE_BULK,
+                                   EnvConfig.parseIntEnv ("LANE_BULK_THREADS", Math.max (1, CPU_COUNT / 2)),
+                                   EnvConfig.parseIntEnv ("LANE_BULK_QUEUE", 16),
+                                   EnvConfig.parseIntEnv ("LANE_BULK_MAX_WAIT_MS", 30000));
+    logger.info ("Validation lanes: {} {}, {} {}",
+                 LANE_INTERACTIVE,
+                 interactiveLane.buildStatusResponse ().getAsJsonString (),
+                 LANE_BULK,
+                 bulkLane.buildStatusResponse ().getAsJsonString ());
+  }
+
+  ValidationLane selectLane (final HttpServletRequest request, final boolean bulkEndpoint)
+  {
+    if (bulkEndpoint)
+      return bulkLane;
+
+    final String apiKey = request.getHeader (API_KEY_HEADER);
+    if (apiKey != null && BULK_API_KEYS.contains (apiKey.trim ()))
+      return bulkLane;
+
+    final String requestedLane = request.getHeader (LANE_HEADER);
+    if (requestedLane != null && LANE_BULK.equalsIgnoreCase (requestedLane.trim ()))
+      return bulkLane;
+
+    return interactiveLane;
+  }
+
+  IJsonObject buildStatusResponse ()
+  {
+    final IJsonObject json = new JsonObject ();
+    json.add (LANE_INTERACTIVE, interactiveLane.buildStatusResponse ());
+    json.add (LANE_BULK, bulkLane.buildStatusResponse ());
+    return json;
+  }
+
+  private static Set<String> parseList (final String envValue)
+  {
+    if (envValue == null || envValue.trim ().isEmpty ())
+      return Collections.emptySet ();
+
+    final Set<String> ret = new LinkedHashSet<> ();
+    for (final String item : envValue.split (","))
+      if (!item.trim ().isEmpty ())
+        ret.add (item.trim ());
+    return Collections.unmodifiableSet (ret);
+  }
+}
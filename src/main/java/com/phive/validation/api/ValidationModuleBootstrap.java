@@ -12,10 +12,33 @@ import com.helger.phive.xml.source.IValidationSourceXML;
 
 final class ValidationModuleBootstrap
 {
+  private static final String EXTRA_MODULE_CLASSES_ENV = System.getenv ("EXTRA_MODULE_CLASSES");
+
+  /** Notified after each module, whether it could be loaded or not. */
+  interface IProgressListener
+  {
+    void onModuleDone (int done, int total);
+  }
+
   private ValidationModuleBootstrap ()
   {}
 
   static void initialize (final ValidationExecutorSetRegistry<IValidationSourceXML> registry, final Logger logger)
+  {
+    initialize (registry, logger, ValidationModuleBootstrap.class.getClassLoader ());
+  }
+
+  static void initialize (final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
+                          final Logger logger,
+                          final ClassLoader classLoader)
+  {
+    initialize (registry, logger, classLoader, null);
+  }
+
+  static void initialize (final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
+                          final Logger logger,
+                          final ClassLoader classLoader,
+                          final IProgressListener progressListener)
   {
     logger.debug ("========================================");
     logger.debug ("Initializing PHIVE Validation Service");
@@ -23,14 +46,14 @@ final class ValidationModuleBootstrap
     logger.debug ("========================================");
 
     final List<String> moduleClassNames = buildModuleClassNames (logger);
-    final ModuleLoadStats stats = loadModules (registry, logger, moduleClassNames);
+    final ModuleLoadStats stats = loadModules (registry, logger, classLoader, moduleClassNames, progressListener);
 
     logger.info ("PHIVE Validation Service initialized.");
     logger.info ("Initialization statistics:");
-    logger.info ("   Modules discovered: " + moduleClassNames.size ());
-    logger.info ("   Modules loaded: " + stats.loadedModules);
-    logger.info ("   Modules skipped: " + stats.failedModules);
-    logger.info ("   Total validation rulesets: " + registry.getAll ().size ());
+    logger.info ("   Modules discovered: {}", moduleClassNames.size ());
+    logger.info ("   Modules loaded: {}", stats.loadedModules);
+    logger.info ("   Modules skipped: {}", stats.failedModules);
+    logger.info ("   Total validation rulesets: {}", registry.getAll ().size ());
     logger.debug ("========================================");
   }
 
@@ -40,6 +63,7 @@ final class ValidationModuleBootstrap
     final List<String> discoveredClasses = getFallbackModuleClassNames ();
 
     ensurePeppolLegacyPresent (logger, discoveredClasses);
+    addExtraModuleClassNames (logger, discoveredClasses);
 
     final List<String> ordered = sortByDependencies (discoveredClasses);
     final Set<String> uniqueOrdered = new LinkedHashSet<> (ordered);
@@ -130,31 +154,54 @@ final class ValidationModuleBootstrap
     }
   }
 
+  private static void addExtraModuleClassNames (final Logger logger, final List<String> classes)
+  {
+    if (EXTRA_MODULE_CLASSES_ENV == null || EXTRA_MODULE_CLASSES_ENV.trim ().isEmpty ())
+      return;
+
+    for (final String raw : EXTRA_MODULE_CLASSES_ENV.split (","))
+    {
+      final String className = raw.trim ();
+      if (!className.isEmpty () && !classes.contains (className))
+      {
+        logger.debug ("Adding extra module: {}", className);
+        classes.add (className);
+      }
+    }
+  }
+
   private static ModuleLoadStats loadModules (final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
                                                final Logger logger,
-                                               final List<String> moduleClassNames)
+                                               final ClassLoader classLoader,
+                                               final List<String> moduleClassNames,
+                                               final IProgressListener progressListener)
   {
     int loadedModules = 0;
     int failedModules = 0;
 
     for (final String className : moduleClassNames)
-      if (tryLoadModule (registry, logger, className))
+    {
+      if (tryLoadModule (registry, logger, classLoader, className))
         loadedModules++;
       else
         failedModules++;
+      if (progressListener != null)
+        progressListener.onModuleDone (loadedModules + failedModules, moduleClassNames.size ());
+    }
 
     return new ModuleLoadStats (loadedModules, failedModules);
   }
 
   private static boolean tryLoadModule (final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
                                         final Logger logger,
+                                        final ClassLoader classLoader,
                                         final String className)
   {
     final String displayName = className.substring (className.lastIndexOf ('.') + 1).replace ("Validation", "");
 
     try
     {
-      final Class<?> clazz = Class.forName (className);
+      final Class<?> clazz = Class.forName (className, true, classLoader);
       final java.lang.reflect.Method [] methods = clazz.getMethods ();
 
       for (final java.lang.reflect.Method method : methods)
@@ -163,31 +210,31 @@ final class ValidationModuleBootstrap
             java.lang.reflect.Modifier.isStatic (method.getModifiers ()))
         {
           method.invoke (null, registry);
-          logger.debug ("Loaded module: " + displayName);
+          logger.debug ("Loaded module: {}", displayName);
           return true;
         }
       }
 
-      logger.warn ("⚠ " + displayName + " - No suitable init method found");
+      logger.warn ("⚠ {} - No suitable init method found", displayName);
       return false;
     }
     catch (final ClassNotFoundException ex)
     {
-      logger.warn ("⚠ " + displayName + " - Module not available in build");
+      logger.warn ("⚠ {} - Module not available in build", displayName);
       return false;
     }
     catch (final java.lang.reflect.InvocationTargetException ex)
     {
       final Throwable cause = ex.getCause ();
       final String errorMsg = cause != null ? cause.getMessage () : ex.getMessage ();
-      logger.warn ("⚠ " + displayName + " - Failed to initialize: " + errorMsg);
+      logger.warn ("⚠ {} - Failed to initialize: {}", displayName, errorMsg);
       if (cause != null)
-        logger.debug ("   Root cause: " + cause.getClass ().getName ());
+        logger.debug ("   Root cause: {}", cause.getClass ().getName ());
       return false;
     }
     catch (final Exception ex)
     {
-      logger.warn ("⚠ " + displayName + " - Failed to load: " + ex.getClass ().getSimpleName () + ": " + ex.getMessage ());
+      logger.warn ("⚠ {} - Failed to load: {}: {}", displayName, ex.getClass ().getSimpleName (), ex.getMessage ());
       return false;
     }
   }
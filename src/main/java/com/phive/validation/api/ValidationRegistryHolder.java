@@ -0,0 +1,470 @@
+package com.phive.validation.api;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.phive.api.executor.IValidationExecutor;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.xml.source.IValidationSourceXML;
+import com.helger.phive.xml.source.ValidationSourceXML;
+import com.helger.xml.schema.XMLSchemaCache;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Holds the active validation registry together with its cached rule list.
+ * Requests take one {@link Snapshot} and use it until they finish, so a reload
+ * can build and warm a new registry in the background and swap it in
+ * atomically while in-flight validations complete on the old one.
+ * <p>
+ * The first registry is built in the background as well (see
+ * {@link #startInitialization()}); until it is available
+ * {@link #current()} returns <code>null</code> and the startup progress can be
+ * queried with {@link #buildStartupStatus()}.
+ * <p>
+ * Validations hold their snapshot with {@link #acquire()} and
+ * {@link Snapshot#release()}. Once a replaced snapshot has no users left, the
+ * class loader of its module directory is closed and its compiled XML Schemas
+ * are removed from the schema cache. The global schema and Schematron caches
+ * are never cleared: every module directory load reads its own jar copies (see
+ * {@link ModuleClassLoader}), so its rules are cached under keys of their own
+ * and the compiled rules of all other modules stay warm. The ph-schematron
+ * caches cannot drop single entries, so the compiled Schematron rules of a
+ * replaced load stay cached.
+ */
+final class ValidationRegistryHolder
+{
+  private static final String MODULES_DIR_ENV = System.getenv ("MODULES_DIR");
+  private static final boolean RELOAD_WARMUP = !"false".equalsIgnoreCase (System.getenv ("RELOAD_WARMUP"));
+  private static final boolean STARTUP_WARMUP = "true".equalsIgnoreCase (System.getenv ("STARTUP_WARMUP"));
+  private static final String WARMUP_DOCUMENT = "<Warmup xmlns=\"urn:phive:warmup\"/>";
+
+  final class Snapshot
+  {
+    final ValidationExecutorSetRegistry<IValidationSourceXML> registry;
+    final String listRulesResponseJson;
+    final int generation;
+    final Instant loadedAt;
+    final ClassLoader classLoader;
+    private final AtomicInteger users = new AtomicInteger ();
+    private final CountDownLatch drained = new CountDownLatch (1);
+    private volatile boolean retired;
+
+    Snapshot (final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
+              final String listRulesResponseJson,
+              final int generation,
+              final Instant loadedAt,
+              final ClassLoader classLoader)
+    {
+      this.registry = registry;
+      this.listRulesResponseJson = listRulesResponseJson;
+      this.generation = generation;
+      this.loadedAt = loadedAt;
+      this.classLoader = classLoader;
+    }
+
+    boolean usesModuleDirectory ()
+    {
+      return classLoader instanceof ModuleClassLoader;
+    }
+
+    /**
+     * Adds a user to a snapshot the caller already holds, e.g. for a worker
+     * that may outlive the request.
+     */
+    void retain ()
+    {
+      users.incrementAndGet ();
+    }
+
+    void release ()
+    {
+      if (users.decrementAndGet () == 0 && retired)
+        drain ();
+    }
+
+    private void retire ()
+    {
+      retired = true;
+      if (users.get () == 0)
+        drain ();
+    }
+
+    boolean isDrained ()
+    {
+      return drained.getCount () == 0;
+    }
+
+    private synchronized void drain ()
+    {
+      if (isDrained ())
+        return;
+      if (classLoader instanceof ModuleClassLoader)
+      {
+        removeCachedSchemas (registry);
+        try
+        {
+          ((ModuleClassLoader) classLoader).close ();
+          logger.info ("Closed module class loader of registry generation {}", generation);
+        }
+        catch (final IOException ex)
+        {
+          logger.warn ("Failed to close module class loader of registry generation {}: {}", generation, ex.getMessage ());
+        }
+      }
+      drained.countDown ();
+    }
+  }
+
+  private final Logger logger;
+  private final boolean prettyPrint;
+  private final String moduleDir;
+  private final boolean reloadWarmup;
+  private final AtomicReference<Snapshot> current = new AtomicReference<> ();
+  private final AtomicBoolean reloadRunning = new AtomicBoolean (false);
+
+  static final String PHASE_PENDING = "pending";
+  static final String PHASE_LOADING_MODULES = "loadingModules";
+  static final String PHASE_WARMING_UP = "warmingUp";
+  static final String PHASE_READY = "ready";
+  static final String PHASE_FAILED = "failed";
+
+  private final CountDownLatch ready = new CountDownLatch (1);
+  private volatile String startupPhase = PHASE_PENDING;
+  private volatile Instant startupStarted;
+  private volatile Instant startupFinished;
+  private volatile int modulesDone;
+  private volatile int modulesTotal;
+  private volatile String startupError;
+
+  private volatile Instant lastReloadStarted;
+  private volatile Instant lastReloadFinished;
+  private volatile String lastReloadError;
+
+  ValidationRegistryHolder (final Logger logger, final boolean prettyPrint)
+  {
+    this (logger, prettyPrint, MODULES_DIR_ENV, RELOAD_WARMUP);
+  }
+
+  ValidationRegistryHolder (final Logger logger, final boolean prettyPrint, final String moduleDir, final boolean reloadWarmup)
+  {
+    this.logger = logger;
+    this.prettyPrint = prettyPrint;
+    this.moduleDir = moduleDir;
+    this.reloadWarmup = reloadWarmup;
+  }
+
+  /**
+   * Loads the first registry synchronously on the calling thread.
+   */
+  void initialize ()
+  {
+    startupStarted = Instant.now ();
+    setReady (buildSnapshot (1, false, true));
+  }
+
+  /**
+   * Starts loading the first registry on a background thread, so that the
+   * container can accept connections while the modules are loaded. A failed
+   * startup can be retried with {@link #triggerReload()}.
+   *
+   * @return <code>true</code> if the startup was started by this call.
+   */
+  boolean startInitialization ()
+  {
+    if (current.get () != null || startupStarted != null || !reloadRunning.compareAndSet (false, true))
+      return false;
+
+    startupStarted = Instant.now ();
+    final Thread thread = new Thread (this::runInitialization, "phive-registry-startup");
+    thread.setDaemon (true);
+    thread.start ();
+    return true;
+  }
+
+  private void runInitialization ()
+  {
+    try
+    {
+      setReady (buildSnapshot (1, STARTUP_WARMUP, true));
+    }
+    catch (final RuntimeException | LinkageError ex)
+    {
+      startupError = ex.getClass ().getSimpleName () + ": " + ex.getMessage ();
+      startupPhase = PHASE_FAILED;
+      startupFinished = Instant.now ();
+      logger.error ("Validation registry startup failed - the service stays unavailable until a successful reload", ex);
+    }
+    finally
+    {
+      reloadRunning.set (false);
+    }
+  }
+
+  private void setReady (final Snapshot snapshot)
+  {
+    if (startupStarted == null)
+      startupStarted = snapshot.loadedAt;
+    current.set (snapshot);
+    startupError = null;
+    startupFinished = snapshot.loadedAt;
+    startupPhase = PHASE_READY;
+    ready.countDown ();
+    logger.info ("Validation service ready after {}ms ({} rulesets)",
+                 Duration.between (startupStarted, startupFinished).toMillis (),
+                 snapshot.registry.getAll ().size ());
+  }
+
+  Snapshot current ()
+  {
+    return current.get ();
+  }
+
+  /**
+   * Returns the current snapshot and registers the caller as its user, which
+   * must call {@link Snapshot#release()} when done.
+   *
+   * @return <code>null</code> if the registry is not available yet.
+   */
+  Snapshot acquire ()
+  {
+    while (true)
+    {
+      final Snapshot snapshot = current.get ();
+      if (snapshot == null)
+        return null;
+      snapshot.retain ();
+      if (current.get () == snapshot)
+        return snapshot;
+      // Swapped in the meantime
+      snapshot.release ();
+    }
+  }
+
+  boolean isReady ()
+  {
+    return current.get () != null;
+  }
+
+  /**
+   * Waits until the first registry is available.
+   *
+   * @return <code>false</code> if it was not available within the timeout.
+   */
+  boolean awaitReady (final long timeout, final TimeUnit unit) throws InterruptedException
+  {
+    return ready.await (timeout, unit);
+  }
+
+  /**
+   * Progress of the startup: the current phase, the number of modules loaded
+   * so far and the error of a failed startup.
+   */
+  IJsonObject buildStartupStatus ()
+  {
+    final IJsonObject status = new JsonObject ();
+    status.add ("ready", isReady ());
+    status.add ("phase", startupPhase);
+    if (modulesTotal > 0)
+    {
+      status.add ("modulesLoaded", modulesDone);
+      status.add ("modulesTotal", modulesTotal);
+    }
+    if (startupStarted != null)
+    {
+      status.add ("startedAt", startupStarted.toString ());
+      final Instant end = startupFinished != null ? startupFinished : Instant.now ();
+      status.add ("elapsedMs", Duration.between (startupStarted, end).toMillis ());
+    }
+    if (startupError != null)
+      status.add ("error", startupError);
+    return status;
+  }
+
+  /**
+   * Starts a background reload unless one is already running.
+   *
+   * @return <code>true</code> if a reload was started.
+   */
+  boolean triggerReload ()
+  {
+    if (!reloadRunning.compareAndSet (false, true))
+      return false;
+
+    lastReloadStarted = Instant.now ();
+    final Thread thread = new Thread (this::runReload, "phive-registry-reload");
+    thread.setDaemon (true);
+    thread.start ();
+    return true;
+  }
+
+  boolean isReloadRunning ()
+  {
+    return reloadRunning.get ();
+  }
+
+  IJsonObject buildStatusResponse ()
+  {
+    final Snapshot snapshot = current.get ();
+    final IJsonObject response = new JsonObject ();
+    response.add ("reloadRunning", reloadRunning.get ());
+    response.add ("startup", buildStartupStatus ());
+    if (snapshot != null)
+    {
+      response.add ("generation", snapshot.generation);
+      response.add ("loadedAt", snapshot.loadedAt.toString ());
+      response.add ("availableRules", snapshot.registry.getAll ().size ());
+    }
+    if (lastReloadStarted != null)
+      response.add ("lastReloadStarted", lastReloadStarted.toString ());
+    if (lastReloadFinished != null)
+      response.add ("lastReloadFinished", lastReloadFinished.toString ());
+    if (lastReloadError != null)
+      response.add ("lastReloadError", lastReloadError);
+    return response;
+  }
+
+  private void runReload ()
+  {
+    try
+    {
+      final Snapshot previous = current.get ();
+      final int generation = previous != null ? previous.generation + 1 : 1;
+      final ClassLoader classLoader = ModuleClassLoader.createOrParent (moduleDir,
+                                                                        ValidationRegistryHolder.class.getClassLoader (),
+                                                                        logger);
+      final Snapshot next;
+      try
+      {
+        next = buildSnapshot (generation, reloadWarmup, false, classLoader);
+        if (next.registry.getAll ().isEmpty ())
+          throw new IllegalStateException ("Reloaded registry contains no validation rulesets");
+      }
+      catch (final RuntimeException | LinkageError ex)
+      {
+        closeQuietly (classLoader);
+        throw ex;
+      }
+
+      if (previous == null)
+        setReady (next);
+      else
+        current.set (next);
+      lastReloadError = null;
+      logger.info ("Validation registry swapped to generation {} ({} rulesets)",
+                   generation,
+                   next.registry.getAll ().size ());
+
+      // Closed by the last validation still using it, not awaited here
+      if (previous != null)
+        previous.retire ();
+    }
+    catch (final RuntimeException | LinkageError ex)
+    {
+      lastReloadError = ex.getClass ().getSimpleName () + ": " + ex.getMessage ();
+      logger.error ("Validation registry reload failed - keeping current registry", ex);
+    }
+    finally
+    {
+      lastReloadFinished = Instant.now ();
+      reloadRunning.set (false);
+    }
+  }
+
+  /**
+   * Removes the compiled XML Schemas of a drained module directory registry.
+   * They are keyed by resource and class loader, so no other registry uses
+   * them.
+   */
+  private static void removeCachedSchemas (final ValidationExecutorSetRegistry<IValidationSourceXML> registry)
+  {
+    for (final IValidationExecutorSet<IValidationSourceXML> ves : registry.getAll ())
+      for (final IValidationExecutor<IValidationSourceXML> executor : ves.getAllExecutors ())
+        if (executor.getValidationArtefact ().getValidationType ().getBaseType ().isXSD ())
+          XMLSchemaCache.getInstance ().removeFromCache (executor.getValidationArtefact ().getRuleResource ());
+  }
+
+  private void closeQuietly (final ClassLoader classLoader)
+  {
+    if (classLoader instanceof ModuleClassLoader)
+      try
+      {
+        ((ModuleClassLoader) classLoader).close ();
+      }
+      catch (final IOException ex)
+      {
+        logger.warn ("Failed to close module class loader: {}", ex.getMessage ());
+      }
+  }
+
+  private Snapshot buildSnapshot (final int generation, final boolean warmup, final boolean startup)
+  {
+    if (startup)
+      startupPhase = PHASE_LOADING_MODULES;
+    return buildSnapshot (generation,
+                          warmup,
+                          startup,
+                          ModuleClassLoader.createOrParent (moduleDir, ValidationRegistryHolder.class.getClassLoader (), logger));
+  }
+
+  private Snapshot buildSnapshot (final int generation, final boolean warmup, final boolean startup, final ClassLoader classLoader)
+  {
+    final ValidationExecutorSetRegistry<IValidationSourceXML> registry = new ValidationExecutorSetRegistry<> ();
+    ValidationModuleBootstrap.initialize (registry, logger, classLoader, startup ? this::onModuleDone : null);
+    if (warmup)
+    {
+      if (startup)
+        startupPhase = PHASE_WARMING_UP;
+      warmUp (registry);
+    }
+
+    final String rulesJson = new RuleResponseBuilder ().buildRulesResponseJson (registry, prettyPrint);
+    return new Snapshot (registry, rulesJson, generation, Instant.now (), classLoader);
+  }
+
+  private void onModuleDone (final int done, final int total)
+  {
+    modulesTotal = total;
+    modulesDone = done;
+  }
+
+  /**
+   * Runs every executor once against a trivial document so that schemas and
+   * Schematron stylesheets are compiled before the registry receives traffic.
+   */
+  private void warmUp (final ValidationExecutorSetRegistry<IValidationSourceXML> registry)
+  {
+    final long startTime = System.nanoTime ();
+    final IValidationSourceXML source = ValidationSourceXML.create ("warmup.xml", DOMReader.readXMLDOM (WARMUP_DOCUMENT));
+    int executorCount = 0;
+
+    for (final IValidationExecutorSet<IValidationSourceXML> ves : registry.getAll ())
+      for (final IValidationExecutor<IValidationSourceXML> executor : ves.getAllExecutors ())
+      {
+        executorCount++;
+        try
+        {
+          executor.applyValidation (source, Locale.US);
+        }
+        catch (final RuntimeException ex)
+        {
+          logger.debug ("Warm-up of {} failed: {}", ves.getID ().getAsSingleID (), ex.getMessage ());
+        }
+      }
+
+    logger.info ("Warmed up {} executors in {}ms",
+                 executorCount,
+                 TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - startTime));
+  }
+}
@@ -5,167 +5,131 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Locale;
-import java.util.Objects;
-import java.util.concurrent.TimeUnit;
 
+import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.Part;
 
 import org.slf4j.Logger;
 
-import com.helger.diver.api.coord.DVRCoordinate;
 import com.helger.io.resource.FileSystemResource;
-import com.helger.json.IJson;
-import com.helger.json.IJsonArray;
 import com.helger.json.IJsonObject;
-import com.helger.phive.api.execute.ValidationExecutionManager;
 import com.helger.phive.api.executorset.IValidationExecutorSet;
 import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
-import com.helger.phive.api.result.ValidationResultList;
-import com.helger.phive.api.validity.IValidityDeterminator;
-import com.helger.phive.result.json.JsonValidationResultListHelper;
-import com.helger.phive.result.json.PhiveJsonHelper;
 import com.helger.phive.xml.source.IValidationSourceXML;
-import com.helger.phive.xml.source.ValidationSourceXML;
 
 final class ValidationRequestHandler
 {
   private static final String PARAM_RULE = "rule";
   private static final String PARAM_FILE = "file";
 
-  private final ValidationExecutorSetRegistry<IValidationSourceXML> registry;
-  private final Logger logger;
+  private final DocumentValidator documentValidator;
 
-  ValidationRequestHandler (final ValidationExecutorSetRegistry<IValidationSourceXML> registry, final Logger logger)
+  ValidationRequestHandler (final Logger logger)
   {
-    this.registry = registry;
-    this.logger = logger;
+    this.documentValidator = new DocumentValidator (logger);
   }
 
-  void handleValidationRequest (final HttpServletRequest request,
-                                final IJsonObject response,
-                                final long startTime) throws Exception
+  /**
+   * The uploaded document of one request, saved to a temporary file on the
+   * container thread so that the lane workers never read from the request.
+   */
+  static final class Upload
   {
-    final String rule = request.getParameter (PARAM_RULE);
-    if (rule == null || rule.trim ().isEmpty ())
+    private final String rule;
+    private final String fileName;
+    private final File file;
+
+    Upload (final String rule, final String fileName, final File file)
     {
-      applyValidationError (response,
-                            "Missing required parameter 'rule'. Please specify a VESID (e.g., 'eu.peppol.bis3:invoice:2024.11')",
-                            startTime);
-      return;
+      this.rule = rule;
+      this.fileName = fileName;
+      this.file = file;
     }
 
-    final DVRCoordinate vesid = DVRCoordinate.parseOrNull (rule);
-    if (vesid == null)
+    String getRule ()
     {
-      applyValidationError (response,
-                            "Invalid rule format: '" + rule +
-                                      "'. Expected format: 'groupId:artifactId:version' (e.g., 'eu.peppol.bis3:invoice:2024.11')",
-                            startTime);
-      return;
+      return rule;
     }
 
-    final IValidationExecutorSet<IValidationSourceXML> executors = registry.getOfID (vesid);
-    if (executors == null)
+    String getFileName ()
     {
-      applyValidationError (response,
-                            "Rule not found: '" + rule + "'. Available rules can be queried via /list-rules endpoint.",
-                            startTime);
-      return;
+      return fileName;
     }
 
-    final Part filePart = request.getPart (PARAM_FILE);
-    if (filePart == null || filePart.getSize () == 0)
+    /** @return the size of the uploaded document, 0 if there is none. */
+    long getSize ()
     {
-      applyValidationError (response,
-                            "Missing required parameter 'file'. Please upload an XML file to validate.",
-                            startTime);
-      return;
+      return file != null ? file.length () : 0;
     }
 
-    executeValidation (response, startTime, rule, executors, filePart);
+    void delete ()
+    {
+      deleteTempFile (file);
+    }
   }
 
-  private void executeValidation (final IJsonObject response,
-                                  final long startTime,
-                                  final String rule,
-                                  final IValidationExecutorSet<IValidationSourceXML> executors,
-                                  final Part filePart) throws Exception
+  /**
+   * Reads the rule and the uploaded file of the request. Must be called on the
+   * container thread, before the validation is handed to a lane.
+   */
+  Upload readUpload (final HttpServletRequest request) throws IOException, ServletException
   {
-    File tempFile = null;
-    try
-    {
-      tempFile = saveUploadedPartToTempFile (filePart);
-      logger.debug ("Validating file: " + filePart.getSubmittedFileName () + " against rule: " + rule);
-
-      final IValidationSourceXML source = ValidationSourceXML.create (new FileSystemResource (tempFile));
-      final Locale locale = Objects.requireNonNull (Locale.US);
-
-      final ValidationResultList validationResults = ValidationExecutionManager.executeValidation (IValidityDeterminator.createDefault (),
-                                                                                                    executors,
-                                                                                                    source,
-                                                                                                    locale);
-
-      final long durationMS = elapsedMs (startTime);
-      new JsonValidationResultListHelper ().sourceToJson (null).ves (executors).applyTo (response, validationResults, locale, durationMS);
-
-      markSkippedValidations (response, validationResults);
-
-      response.add (PhiveJsonHelper.JSON_SUCCESS, validationResults.containsNoError ());
-      final String fileName = filePart.getSubmittedFileName ();
-      response.add ("fileName", fileName != null && !fileName.isEmpty () ? fileName : "pasted-content.xml");
-      response.add ("rule", rule);
-
-      logger.debug ("Validation completed in " + durationMS + "ms. Success: " + validationResults.containsNoError ());
-    }
-    finally
-    {
-      deleteTempFile (tempFile);
-    }
+    final String rule = request.getParameter (PARAM_RULE);
+    final Part filePart = request.getPart (PARAM_FILE);
+    if (filePart == null || filePart.getSize () == 0)
+      return new Upload (rule, null, null);
+    return new Upload (rule, filePart.getSubmittedFileName (), saveUploadedPartToTempFile (filePart));
   }
 
-  private void markSkippedValidations (final IJsonObject response, final ValidationResultList validationResults)
+  void handleValidationRequest (final Upload upload,
+                                final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
+                                final IJsonObject response,
+                                final long startTime,
+                                final ValidationBudget budget) throws Exception
   {
-    final IJsonArray results = response.getAsArray ("results");
-    if (results == null)
+    final IValidationExecutorSet<IValidationSourceXML> executors = documentValidator.resolveExecutorSet (registry,
+                                                                                                        upload.getRule (),
+                                                                                                        response,
+                                                                                                        startTime);
+    if (executors == null)
       return;
 
-    final boolean xmlSchemaFailed = hasXmlSchemaFailed (validationResults);
-    if (xmlSchemaFailed)
-      logger.debug ("XML Schema validation failed - marking subsequent Schematron validations as SKIPPED");
-
-    boolean isFirst = true;
-    for (final IJson resultItem : results)
+    if (upload.file == null)
     {
-      if (resultItem == null || !resultItem.isObject ())
-        continue;
-
-      final IJsonObject resultObj = resultItem.getAsObject ();
-      if (resultObj == null)
-        continue;
-
-      if (xmlSchemaFailed && !isFirst)
-      {
-        resultObj.add ("skipped", true);
-        resultObj.add ("skipReason", "XML Schema validation failed - Schematron validation not executed");
-      }
-      else
-      {
-        resultObj.add ("skipped", false);
-      }
-
-      isFirst = false;
+      DocumentValidator.applyValidationError (response,
+                                              "Missing required parameter 'file'. Please upload an XML file to validate.",
+                                              startTime);
+      return;
     }
+
+    documentValidator.validate (response,
+                                startTime,
+                                upload.getRule (),
+                                executors,
+                                new FileSystemResource (upload.file),
+                                upload.getFileName (),
+                                budget);
   }
 
-  private static boolean hasXmlSchemaFailed (final ValidationResultList validationResults)
+  /**
+   * Builds the response for a request whose validation is still running after
+   * its budget ran out, keeping the layers that completed in time.
+   */
+  void applyTimeout (final Upload upload,
+                     final ValidationExecutorSetRegistry<IValidationSourceXML> registry,
+                     final IJsonObject response,
+                     final long startTime,
+                     final ValidationBudget budget)
   {
-    if (validationResults.isEmpty ())
-      return false;
+    final IValidationExecutorSet<IValidationSourceXML> executors = documentValidator.resolveExecutorSet (registry,
+                                                                                                        upload.getRule (),
+                                                                                                        response,
+                                                                                                        startTime);
+    if (executors == null)
+      return;
 
-    final var firstResult = validationResults.get (0);
-    return firstResult.getErrorList () != null && !firstResult.getErrorList ().isEmpty ();
+    documentValidator.applyTimeout (response, startTime, upload.getRule (), executors, upload.getFileName (), budget);
   }
 
   private static File saveUploadedPartToTempFile (final Part filePart) throws IOException
@@ -178,6 +142,11 @@ final class ValidationRequestHandler
       while ((bytesRead = input.read (buffer)) != -1)
         output.write (buffer, 0, bytesRead);
     }
+    catch (final IOException ex)
+    {
+      deleteTempFile (tempFile);
+      throw ex;
+    }
     return tempFile;
   }
 
@@ -186,14 +155,4 @@ final class ValidationRequestHandler
     if (tempFile != null && tempFile.exists ())
       tempFile.delete ();
   }
-
-  private static void applyValidationError (final IJsonObject response, final String message, final long startTime)
-  {
-    PhiveJsonHelper.applyGlobalError (response, message, elapsedMs (startTime));
-  }
-
-  private static long elapsedMs (final long startTime)
-  {
-    return TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - startTime);
-  }
 }
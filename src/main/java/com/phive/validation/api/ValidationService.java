@@ -7,6 +7,8 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.MultipartConfig;
@@ -21,14 +23,14 @@ import org.slf4j.LoggerFactory;
 import com.helger.json.IJsonObject;
 import com.helger.json.JsonObject;
 import com.helger.json.serialize.JsonWriterSettings;
-import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
 import com.helger.phive.result.json.PhiveJsonHelper;
-import com.helger.phive.xml.source.IValidationSourceXML;
 
 /**
- * PHIVE Validation REST API Service
+ * PHIVE Validation REST API Service. The validation registry is loaded in the
+ * background by {@link ValidationStartupListener}; until it is ready the
+ * validation endpoints and <code>/list-rules</code> answer 503.
  */
-@WebServlet(urlPatterns = { "/validate", "/list-rules", "/api" })
+@WebServlet(urlPatterns = { "/validate", "/validate-bulk", "/validate-stream", "/list-rules", "/api", "/admin/reload" })
 @MultipartConfig(maxFileSize = 5 * 1024 * 1024)
 public class ValidationService extends HttpServlet
 {
@@ -38,30 +40,61 @@ public class ValidationService extends HttpServlet
 
   private static final String PATH_LIST_RULES = "/list-rules";
   private static final String PATH_API = "/api";
+  private static final String PATH_VALIDATE = "/validate";
+  private static final String PATH_VALIDATE_BULK = "/validate-bulk";
+  private static final String PATH_VALIDATE_STREAM = "/validate-stream";
+  private static final String PATH_ADMIN_RELOAD = "/admin/reload";
 
   private static final String ALLOWED_ORIGINS_ENV = System.getenv ("ALLOWED_ORIGINS");
   private static final Set<String> ALLOWED_ORIGIN_SET = parseAllowedOrigins (ALLOWED_ORIGINS_ENV);
   private static final boolean JSON_PRETTY_PRINT = parseBooleanEnv ("JSON_PRETTY_PRINT", false);
+  private static final int STARTUP_RETRY_AFTER_SECONDS = 5;
 
-  private static final ValidationExecutorSetRegistry<IValidationSourceXML> VES_REGISTRY = new ValidationExecutorSetRegistry<> ();
-  private static final String LIST_RULES_RESPONSE_JSON;
+  private static final ValidationRegistryHolder REGISTRY_HOLDER = new ValidationRegistryHolder (LOGGER, JSON_PRETTY_PRINT);
 
   static
   {
-    ValidationModuleBootstrap.initialize (VES_REGISTRY, LOGGER);
     logCorsConfiguration ();
-    LIST_RULES_RESPONSE_JSON = new RuleResponseBuilder ().buildRulesResponseJson (VES_REGISTRY, JSON_PRETTY_PRINT);
   }
 
-  private final ValidationRequestHandler validationRequestHandler = new ValidationRequestHandler (VES_REGISTRY, LOGGER);
+  private static final ValidationLanes VALIDATION_LANES = new ValidationLanes (LOGGER);
+  private static final MemoryBudget MEMORY_BUDGET = new MemoryBudget (LOGGER);
+
+  private final ValidationRequestHandler validationRequestHandler = new ValidationRequestHandler (LOGGER);
+  private final StreamValidationHandler streamValidationHandler = new StreamValidationHandler (LOGGER, MEMORY_BUDGET);
   private final RuleResponseBuilder ruleResponseBuilder = new RuleResponseBuilder ();
+  private final AdminRequestHandler adminRequestHandler = new AdminRequestHandler (REGISTRY_HOLDER);
+
+  /**
+   * Starts loading the validation registry in the background unless that has
+   * already happened.
+   *
+   * @return <code>true</code> if this call started it.
+   */
+  static boolean startRegistryInitialization ()
+  {
+    return REGISTRY_HOLDER.startInitialization ();
+  }
+
+  static boolean awaitRegistry (final long timeout, final TimeUnit unit) throws InterruptedException
+  {
+    return REGISTRY_HOLDER.awaitReady (timeout, unit);
+  }
+
+  @Override
+  public void init () throws ServletException
+  {
+    // Fallback for containers that do not pick up the startup listener
+    if (startRegistryInitialization ())
+      LOGGER.info ("Validation registry initialization started by the servlet");
+  }
 
   private static void logCorsConfiguration ()
   {
     if (ALLOWED_ORIGINS_ENV != null && !ALLOWED_ORIGINS_ENV.isEmpty ())
     {
       LOGGER.info ("CORS: Allowed origins configured.");
-      LOGGER.debug ("CORS allowed origins: " + ALLOWED_ORIGINS_ENV);
+      LOGGER.debug ("CORS allowed origins: {}", ALLOWED_ORIGINS_ENV);
     }
     else
       LOGGER.info ("CORS: No ALLOWED_ORIGINS environment variable set, allowing all origins (*)");
@@ -110,7 +143,13 @@ public class ValidationService extends HttpServlet
     }
 
     response.setHeader ("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-    response.setHeader ("Access-Control-Allow-Headers", "Content-Type, Accept, Origin, X-Requested-With");
+    response.setHeader ("Access-Control-Allow-Headers",
+                        "Content-Type, Accept, Origin, X-Requested-With, " +
+                                                        ValidationLanes.LANE_HEADER +
+                                                        ", " +
+                                                        ValidationLanes.API_KEY_HEADER +
+                                                        ", " +
+                                                        ValidationBudget.TIMEOUT_HEADER);
     response.setHeader ("Access-Control-Max-Age", "3600");
   }
 
@@ -124,16 +163,119 @@ public class ValidationService extends HttpServlet
   @Override
   protected void doPost (final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException
   {
+    final String pathInfo = getPathInfo (request);
+    if (matchesPath (pathInfo, PATH_ADMIN_RELOAD))
+    {
+      handleAdminRequest (request, response, true);
+      return;
+    }
+
+    final boolean bulkEndpoint = matchesPath (pathInfo, PATH_VALIDATE_BULK);
+    final boolean streamEndpoint = matchesPath (pathInfo, PATH_VALIDATE_STREAM);
+    if (rejectUntilReady (request, response, streamEndpoint ? PATH_VALIDATE_STREAM : bulkEndpoint ? PATH_VALIDATE_BULK : PATH_VALIDATE))
+      return;
+
+    if (streamEndpoint)
+    {
+      handleStreamRequest (request, response);
+      return;
+    }
+
     setCorsHeaders (request, response);
     response.setContentType ("application/json");
     response.setCharacterEncoding (StandardCharsets.UTF_8.name ());
 
+    final ValidationLane lane = VALIDATION_LANES.selectLane (request, bulkEndpoint);
+    final String endpoint = bulkEndpoint ? PATH_VALIDATE_BULK : PATH_VALIDATE;
+    IJsonObject jsonResponse = new JsonObject ();
+
+    // The upload is read here, so a slow client holds a container thread rather
+    // than a lane worker, and the worker never touches the request
+    final long uploadStartTime = System.nanoTime ();
+    final ValidationRequestHandler.Upload upload;
+    try
+    {
+      upload = validationRequestHandler.readUpload (request);
+    }
+    catch (final IOException | ServletException | IllegalStateException ex)
+    {
+      LOGGER.warn ("Could not read the uploaded file: {}", ex.getMessage ());
+      final long durationMS = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - uploadStartTime);
+      PhiveJsonHelper.applyGlobalError (jsonResponse, "Could not read the uploaded file.", durationMS);
+      if (AccessLog.isEnabled ())
+        AccessLog.log (endpoint,
+                       lane.getName (),
+                       request.getParameter ("rule"),
+                       request.getContentLengthLong (),
+                       durationMS,
+                       AccessLog.OUTCOME_ERROR);
+      sendResponse (response, jsonResponse);
+      return;
+    }
+
     final long startTime = System.nanoTime ();
-    final IJsonObject jsonResponse = new JsonObject ();
+    // One hold for this thread and one for the worker, which may outlive the request
+    final ValidationRegistryHolder.Snapshot snapshot = REGISTRY_HOLDER.acquire ();
+    snapshot.retain ();
+    final ValidationBudget budget = ValidationBudget.create (startTime,
+                                                             upload.getRule (),
+                                                             request.getHeader (ValidationBudget.TIMEOUT_HEADER));
+    String outcome = null;
+    MemoryBudget.Reservation reservation = null;
+    // Whoever sets this first cleans up: the worker once it starts, otherwise this thread
+    final AtomicBoolean handedOver = new AtomicBoolean (false);
 
     try
     {
-      validationRequestHandler.handleValidationRequest (request, jsonResponse, startTime);
+      // Waiting for memory and for a worker share one maximum queue wait
+      final long queueDeadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (lane.getMaxQueueWaitMs ());
+      final MemoryBudget.Reservation memory = MEMORY_BUDGET.reserve (upload.getRule (),
+                                                                     upload.getSize (),
+                                                                     lane.getName (),
+                                                                     lane.getMaxQueueWaitMs ());
+      reservation = memory;
+      final long queueWaitMs = Math.max (0, TimeUnit.NANOSECONDS.toMillis (queueDeadline - System.nanoTime ()));
+      jsonResponse = lane.execute ( () -> {
+        final IJsonObject workerResponse = new JsonObject ();
+        if (!handedOver.compareAndSet (false, true))
+          throw new IllegalStateException ("Validation request was already abandoned");
+        memory.start ();
+        try
+        {
+          validationRequestHandler.handleValidationRequest (upload, snapshot.registry, workerResponse, startTime, budget);
+        }
+        finally
+        {
+          upload.delete ();
+          snapshot.release ();
+          memory.finish (workerResponse.containsKey (PhiveJsonHelper.JSON_VES));
+        }
+        return workerResponse;
+      }, budget, queueWaitMs);
+    }
+    catch (final ValidationLane.RejectedException ex)
+    {
+      LOGGER.warn (ex.getMessage ());
+      response.setStatus (HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      response.setHeader ("Retry-After", Integer.toString (ex.getRetryAfterSeconds ()));
+      final long durationMS = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - startTime);
+      PhiveJsonHelper.applyGlobalError (jsonResponse, ex.getMessage (), durationMS);
+      jsonResponse.add ("lane", ex.getLaneName ());
+      outcome = AccessLog.OUTCOME_REJECTED;
+    }
+    catch (final TimeoutException ex)
+    {
+      LOGGER.warn ("Validation against '{}' exceeded its time budget of {}ms", upload.getRule (), budget.getBudgetMs ());
+      try
+      {
+        validationRequestHandler.applyTimeout (upload, snapshot.registry, jsonResponse, startTime, budget);
+      }
+      catch (final Exception ex2)
+      {
+        LOGGER.error ("Error while building the timeout response", ex2);
+        final long durationMS = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - startTime);
+        PhiveJsonHelper.applyGlobalError (jsonResponse, "Validation time budget exhausted.", durationMS);
+      }
     }
     catch (final Exception ex)
     {
@@ -141,6 +283,25 @@ public class ValidationService extends HttpServlet
       final long durationMS = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - startTime);
       PhiveJsonHelper.applyGlobalError (jsonResponse, "Internal error occurred while processing validation request.", durationMS);
     }
+    finally
+    {
+      if (handedOver.compareAndSet (false, true))
+      {
+        upload.delete ();
+        snapshot.release ();
+      }
+      snapshot.release ();
+      if (reservation != null)
+        reservation.releaseIfNotStarted ();
+    }
+
+    if (AccessLog.isEnabled ())
+      AccessLog.log (endpoint,
+                     lane.getName (),
+                     upload.getRule (),
+                     request.getContentLengthLong (),
+                     TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - startTime),
+                     outcome != null ? outcome : AccessLog.getOutcome (jsonResponse));
 
     sendResponse (response, jsonResponse);
   }
@@ -152,10 +313,12 @@ public class ValidationService extends HttpServlet
 
     if (matchesPath (pathInfo, PATH_LIST_RULES))
     {
+      if (rejectUntilReady (request, response, PATH_LIST_RULES))
+        return;
       setCorsHeaders (request, response);
       response.setContentType ("application/json");
       response.setCharacterEncoding (StandardCharsets.UTF_8.name ());
-      sendRawResponse (response, LIST_RULES_RESPONSE_JSON);
+      sendRawResponse (response, REGISTRY_HOLDER.current ().listRulesResponseJson);
       return;
     }
 
@@ -164,18 +327,109 @@ public class ValidationService extends HttpServlet
       setCorsHeaders (request, response);
       response.setContentType ("application/json");
       response.setCharacterEncoding (StandardCharsets.UTF_8.name ());
-      sendResponse (response, ruleResponseBuilder.buildApiInfoResponse (VES_REGISTRY));
+      final ValidationRegistryHolder.Snapshot snapshot = REGISTRY_HOLDER.current ();
+      final IJsonObject apiInfo = ruleResponseBuilder.buildApiInfoResponse (snapshot != null ? snapshot.registry : null);
+      apiInfo.add ("startup", REGISTRY_HOLDER.buildStartupStatus ());
+      apiInfo.add ("lanes", VALIDATION_LANES.buildStatusResponse ());
+      apiInfo.add ("memory", MEMORY_BUDGET.buildStatusResponse ());
+      sendResponse (response, apiInfo);
+      return;
+    }
+
+    if (matchesPath (pathInfo, PATH_ADMIN_RELOAD))
+    {
+      handleAdminRequest (request, response, false);
       return;
     }
 
     response.sendError (HttpServletResponse.SC_NOT_FOUND);
   }
 
+  /**
+   * Answers 503 with <code>Retry-After</code> and the startup progress while
+   * the validation registry is still loading.
+   *
+   * @return <code>true</code> if the request was answered.
+   */
+  private boolean rejectUntilReady (final HttpServletRequest request, final HttpServletResponse response, final String endpoint)
+    throws IOException
+  {
+    if (REGISTRY_HOLDER.isReady ())
+      return false;
+
+    setCorsHeaders (request, response);
+    response.setContentType ("application/json");
+    response.setCharacterEncoding (StandardCharsets.UTF_8.name ());
+    response.setStatus (HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    response.setHeader ("Retry-After", Integer.toString (STARTUP_RETRY_AFTER_SECONDS));
+
+    final IJsonObject startup = REGISTRY_HOLDER.buildStartupStatus ();
+    final IJsonObject jsonResponse = new JsonObject ();
+    PhiveJsonHelper.applyGlobalError (jsonResponse,
+                                      ValidationRegistryHolder.PHASE_FAILED.equals (startup.getAsString ("phase")) ? "Validation service failed to start."
+                                                                                                                    : "Validation service is starting up. Please retry later.",
+                                      0);
+    jsonResponse.add ("startup", startup);
+
+    if (AccessLog.isEnabled ())
+      AccessLog.log (endpoint, "startup", request.getParameter ("rule"), request.getContentLengthLong (), 0, AccessLog.OUTCOME_REJECTED);
+    sendResponse (response, jsonResponse);
+    return true;
+  }
+
+  private void handleStreamRequest (final HttpServletRequest request, final HttpServletResponse response) throws IOException
+  {
+    setCorsHeaders (request, response);
+    final ValidationRegistryHolder.Snapshot snapshot = REGISTRY_HOLDER.acquire ();
+    try
+    {
+      streamValidationHandler.handleStreamRequest (request, response, snapshot.registry, VALIDATION_LANES.selectLane (request, true));
+    }
+    catch (final InterruptedException ex)
+    {
+      LOGGER.warn ("Stream validation interrupted");
+      Thread.currentThread ().interrupt ();
+    }
+    finally
+    {
+      snapshot.release ();
+    }
+  }
+
+  private void handleAdminRequest (final HttpServletRequest request,
+                                   final HttpServletResponse response,
+                                   final boolean triggerReload) throws IOException
+  {
+    if (!AdminRequestHandler.isEnabled ())
+    {
+      response.sendError (HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    response.setContentType ("application/json");
+    response.setCharacterEncoding (StandardCharsets.UTF_8.name ());
+
+    if (!AdminRequestHandler.isAuthorized (request))
+    {
+      LOGGER.warn ("Rejected unauthorized admin request from {}", request.getRemoteAddr ());
+      response.setStatus (HttpServletResponse.SC_UNAUTHORIZED);
+      sendResponse (response, AdminRequestHandler.createUnauthorizedResponse ());
+      return;
+    }
+
+    if (triggerReload)
+      sendResponse (response, adminRequestHandler.handleReloadRequest (response));
+    else
+      sendResponse (response, adminRequestHandler.handleStatusRequest ());
+  }
+
   private static String getPathInfo (final HttpServletRequest request)
   {
     final String requestURI = request.getRequestURI ();
+    if (requestURI == null)
+      return null;
     final String contextPath = request.getContextPath ();
-    return requestURI.substring (contextPath.length ());
+    return contextPath == null ? requestURI : requestURI.substring (contextPath.length ());
   }
 
   private static boolean matchesPath (final String pathInfo, final String target)
@@ -0,0 +1,27 @@
+package com.phive.validation.api;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts loading the validation registry in the background as soon as the web
+ * application is deployed. The container accepts connections and serves the
+ * static UI immediately, while the validation endpoints answer 503 until the
+ * registry is ready.
+ */
+@WebListener
+public final class ValidationStartupListener implements ServletContextListener
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (ValidationStartupListener.class);
+
+  @Override
+  public void contextInitialized (final ServletContextEvent event)
+  {
+    if (ValidationService.startRegistryInitialization ())
+      LOGGER.info ("Validation registry initialization started in the background");
+  }
+}
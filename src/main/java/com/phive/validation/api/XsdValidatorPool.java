@@ -0,0 +1,117 @@
+package com.phive.validation.api;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.transform.Source;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.xml.sax.SAXParseException;
+
+import com.helger.base.location.SimpleLocation;
+import com.helger.base.timing.StopWatch;
+import com.helger.diagnostics.error.SingleError;
+import com.helger.diagnostics.error.level.EErrorLevel;
+import com.helger.diagnostics.error.list.ErrorList;
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.xml.source.IValidationSourceXML;
+import com.helger.phive.xml.xsd.ValidationExecutorXSD;
+import com.helger.xml.EXMLParserProperty;
+import com.helger.xml.sax.AbstractSAXErrorHandler;
+import com.helger.xml.sax.WrappedCollectingSAXErrorHandler;
+
+/**
+ * Runs XSD layers with reused {@link Validator} instances instead of creating
+ * one per document. A validator keeps its internal parser configuration, so
+ * reuse saves both the validator and the parser setup. Validators are pooled
+ * per {@link Schema} in a bounded queue of at most <code>XML_POOL_SIZE</code>
+ * idle instances (default: number of CPUs, 0 disables pooling). Borrowing never
+ * blocks: an empty pool creates a new validator and a full pool drops the
+ * returned one, so the pool works the same for platform and virtual threads.
+ * <p>
+ * Results are identical to {@link ValidationExecutorXSD#applyValidation}.
+ */
+final class XsdValidatorPool
+{
+  private static final int POOL_SIZE = EnvConfig.parseNonNegativeIntEnv ("XML_POOL_SIZE", Runtime.getRuntime ().availableProcessors ());
+
+  private final int poolSize;
+  private final Map<Schema, BlockingQueue<Validator>> pools = Collections.synchronizedMap (new WeakHashMap<> ());
+
+  XsdValidatorPool ()
+  {
+    this (POOL_SIZE);
+  }
+
+  XsdValidatorPool (final int poolSize)
+  {
+    this.poolSize = poolSize;
+  }
+
+  boolean isEnabled ()
+  {
+    return poolSize > 0;
+  }
+
+  ValidationResult applyValidation (final ValidationExecutorXSD executor, final IValidationSourceXML source, final Locale locale)
+  {
+    final StopWatch stopWatch = StopWatch.createdStarted ();
+    final Schema schema = executor.getSchemaProvider ().get ();
+    final ErrorList errorList = new ErrorList ();
+    final Source transformSource = source.getAsTransformSource ();
+
+    final BlockingQueue<Validator> pool = pools.computeIfAbsent (schema, key -> new ArrayBlockingQueue<> (poolSize));
+    Validator validator = pool.poll ();
+    if (validator == null)
+      validator = schema.newValidator ();
+
+    boolean reusable = false;
+    try
+    {
+      if (locale != null)
+        EXMLParserProperty.GENERAL_LOCALE.applyTo (validator, locale);
+      validator.setErrorHandler (new WrappedCollectingSAXErrorHandler (errorList));
+      validator.validate (transformSource, null);
+      reusable = true;
+    }
+    catch (final Exception ex)
+    {
+      // Same error mapping as ValidationExecutorXSD
+      if (ex instanceof SAXParseException)
+        errorList.add (AbstractSAXErrorHandler.getSaxParseError (EErrorLevel.FATAL_ERROR, (SAXParseException) ex));
+      else
+        errorList.add (SingleError.builderFatalError ()
+                                  .errorLocation (new SimpleLocation (executor.getValidationArtefact ().getRuleResourcePath ()))
+                                  .errorText ("The document to be validated is not an XML document")
+                                  .linkedException (new IllegalArgumentException ("Failed to validate the XML " +
+                                                                                  transformSource +
+                                                                                  " against " +
+                                                                                  schema,
+                                                                                  ex))
+                                  .build ());
+    }
+    finally
+    {
+      if (reusable)
+        release (pool, validator);
+    }
+    return new ValidationResult (executor.getValidationArtefact (), errorList, stopWatch.stopAndGetMillis ());
+  }
+
+  /**
+   * Each <code>validate</code> call already resets the parser and validation
+   * state. {@link Validator#reset()} is deliberately not called: the JDK's
+   * built-in Xerces drops its security property manager on reset and fails on
+   * the next document. Only the per-use error handler is detached.
+   */
+  private static void release (final BlockingQueue<Validator> pool, final Validator validator)
+  {
+    validator.setErrorHandler (null);
+    pool.offer (validator);
+  }
+}
@@ -0,0 +1,19 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class AccessLogTest
+{
+  @Test
+  void controlCharactersOfTheRuleCannotBreakTheLogLine ()
+  {
+    final String rule = "eu.peppol:invoice:1.0";
+    assertSame (rule, AccessLog.escapeControlChars (rule));
+    assertEquals ("", AccessLog.escapeControlChars (null));
+    assertEquals ("a\\u000a{\"forged\":1}\\u000d\\u0009b",
+                  AccessLog.escapeControlChars ("a\n{\"forged\":1}\r\tb"));
+  }
+}
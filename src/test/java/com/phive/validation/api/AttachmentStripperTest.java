@@ -0,0 +1,154 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import com.helger.diagnostics.error.list.ErrorList;
+import com.helger.diver.api.coord.DVRCoordinate;
+import com.helger.io.resource.IReadableResource;
+import com.helger.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.phive.api.EValidationType;
+import com.helger.phive.api.artefact.ValidationArtefact;
+import com.helger.phive.api.executor.IValidationExecutor;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.executorset.status.ValidationExecutorSetStatus;
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.xml.source.IValidationSourceXML;
+import com.helger.phive.xml.source.ValidationSourceXML;
+import com.helger.phive.xml.xsd.ValidationExecutorXSD;
+
+class AttachmentStripperTest
+{
+  private static final String XSD = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:test:invoice' elementFormDefault='qualified'>" +
+                                    "<xs:element name='Invoice'><xs:complexType><xs:sequence>" +
+                                    "<xs:element name='EmbeddedDocumentBinaryObject' maxOccurs='unbounded'><xs:complexType><xs:simpleContent>" +
+                                    "<xs:extension base='xs:base64Binary'><xs:attribute name='mimeCode' type='xs:string'/></xs:extension>" +
+                                    "</xs:simpleContent></xs:complexType></xs:element>" +
+                                    "<xs:element name='Amount' type='xs:int'/>" +
+                                    "</xs:sequence></xs:complexType></xs:element>" +
+                                    "</xs:schema>";
+
+  private final ValidationExecutorXSD executor = ValidationExecutorXSD.create (new ReadableResourceByteArray ("invoice.xsd",
+                                                                                                             XSD.getBytes (StandardCharsets.UTF_8),
+                                                                                                             false));
+
+  private final IValidationExecutorSet<IValidationSourceXML> executors = ValidationExecutorSet.create (DVRCoordinate.parseOrNull ("com.test:invoice:1"),
+                                                                                                      "Test invoice",
+                                                                                                      ValidationExecutorSetStatus.createValidNow (),
+                                                                                                      executor);
+
+  private final AttachmentStripper stripper = new AttachmentStripper (LoggerFactory.getLogger (AttachmentStripperTest.class));
+
+  private static IReadableResource resource (final String xml)
+  {
+    return new ReadableResourceByteArray ("doc.xml", xml.getBytes (StandardCharsets.UTF_8), false);
+  }
+
+  @Test
+  void errorLocationsMatchTheOriginalDocument () throws Exception
+  {
+    final byte [] pdf = new byte [20_000];
+    new Random (42).nextBytes (pdf);
+    final String xml = "<Invoice xmlns='urn:test:invoice'>\n" +
+                       "  <EmbeddedDocumentBinaryObject mimeCode='application/pdf'>\n" +
+                       Base64.getMimeEncoder ().encodeToString (pdf) +
+                       "\n  </EmbeddedDocumentBinaryObject><EmbeddedDocumentBinaryObject mimeCode='text/plain'>" +
+                       Base64.getEncoder ().encodeToString ("Hello".getBytes (StandardCharsets.US_ASCII)) +
+                       "</EmbeddedDocumentBinaryObject><Amount>abc</Amount>\n" +
+                       "</Invoice>";
+
+    final AttachmentStripper.Result stripped = stripper.strip (resource (xml));
+    assertNotNull (stripped);
+    assertEquals (2, stripped.getAttachments ().size ());
+    assertTrue (stripped.getContentLength () < 1024);
+    final AttachmentStripper.Attachment attachment = stripped.getAttachments ().get (0);
+    assertNull (attachment.getBase64Error ());
+    assertEquals (pdf.length, attachment.getSizeBytes ());
+    assertEquals (HexFormat.of ().formatHex (MessageDigest.getInstance ("SHA-256").digest (pdf)), attachment.getSha256 ());
+
+    final ValidationResult expected = executor.applyValidation (ValidationSourceXML.create (resource (xml)), Locale.US);
+    final ValidationResult actual = stripped.adjust (executors,
+                                                     executor,
+                                                     executor.applyValidation (ValidationSourceXML.create (stripped.getAsResource ()), Locale.US));
+    assertEquals (2, expected.getErrorList ().size ());
+    assertEquals (expected.getErrorList ().size (), actual.getErrorList ().size ());
+    for (int i = 0; i < expected.getErrorList ().size (); i++)
+      assertEquals (expected.getErrorList ().get (i).getAsString (Locale.US), actual.getErrorList ().get (i).getAsString (Locale.US));
+  }
+
+  @Test
+  void invalidBase64IsReportedByTheSchemaLayer ()
+  {
+    final String xml = "<Invoice xmlns='urn:test:invoice'><EmbeddedDocumentBinaryObject>SGVsbG8=QQ==</EmbeddedDocumentBinaryObject>" +
+                       "<EmbeddedDocumentBinaryObject>  </EmbeddedDocumentBinaryObject><Amount>1</Amount></Invoice>";
+
+    final AttachmentStripper.Result stripped = stripper.strip (resource (xml));
+    assertNotNull (stripped);
+    assertEquals (1, stripped.getAttachments ().size ());
+    assertNotNull (stripped.getAttachments ().get (0).getBase64Error ());
+
+    final ValidationResult actual = stripped.adjust (executors,
+                                                     executor,
+                                                     executor.applyValidation (ValidationSourceXML.create (stripped.getAsResource ()), Locale.US));
+    assertEquals (1, actual.getErrorList ().size ());
+    assertEquals (1, actual.getErrorList ().get (0).getErrorLocation ().getLineNumber ());
+    assertEquals (65, actual.getErrorList ().get (0).getErrorLocation ().getColumnNumber ());
+  }
+
+  @Test
+  void columnsFollowTheDeclaredSingleByteEncoding ()
+  {
+    // Bytes 0x80-0xBF are characters of their own in ISO-8859-1, not UTF-8 continuation bytes
+    final String line = "<Invoice xmlns='urn:test:invoice'><EmbeddedDocumentBinaryObject mimeCode='£ © °'>";
+    final String xml = "<?xml version='1.0' encoding='ISO-8859-1'?>\n" +
+                       line +
+                       "SGVsbG8=QQ==</EmbeddedDocumentBinaryObject><Amount>1</Amount></Invoice>";
+
+    final AttachmentStripper.Result stripped = stripper.strip (new ReadableResourceByteArray ("doc.xml", xml.getBytes (StandardCharsets.ISO_8859_1), false));
+    assertNotNull (stripped);
+    final ValidationResult actual = stripped.adjust (executors,
+                                                     executor,
+                                                     executor.applyValidation (ValidationSourceXML.create (stripped.getAsResource ()), Locale.US));
+    assertEquals (1, actual.getErrorList ().size ());
+    assertEquals (2, actual.getErrorList ().get (0).getErrorLocation ().getLineNumber ());
+    assertEquals (line.length () + 1, actual.getErrorList ().get (0).getErrorLocation ().getColumnNumber ());
+  }
+
+  @Test
+  @SuppressWarnings ("unchecked")
+  void invalidBase64IsReportedByTheFirstLayerWithoutSchemaLayer ()
+  {
+    final ValidationArtefact artefact = new ValidationArtefact (EValidationType.SCHEMATRON_XSLT, new ReadableResourceByteArray ("rules.xslt", new byte [0], false));
+    final IValidationExecutor<IValidationSourceXML> first = mock (IValidationExecutor.class);
+    final IValidationExecutor<IValidationSourceXML> second = mock (IValidationExecutor.class);
+    when (first.getValidationArtefact ()).thenReturn (artefact);
+    when (second.getValidationArtefact ()).thenReturn (artefact);
+    final IValidationExecutorSet<IValidationSourceXML> schematronOnly = ValidationExecutorSet.create (DVRCoordinate.parseOrNull ("com.test:invoice:1"),
+                                                                                                     "Test invoice",
+                                                                                                     ValidationExecutorSetStatus.createValidNow (),
+                                                                                                     first,
+                                                                                                     second);
+
+    final AttachmentStripper.Result stripped = stripper.strip (resource ("<Invoice xmlns='urn:test:invoice'><EmbeddedDocumentBinaryObject>SGVsbG8=QQ==" +
+                                                                         "</EmbeddedDocumentBinaryObject></Invoice>"));
+    assertNotNull (stripped);
+    final ValidationResult valid = new ValidationResult (artefact, new ErrorList (), 0);
+    assertEquals (1, stripped.adjust (schematronOnly, first, valid).getErrorList ().size ());
+    assertEquals (0, stripped.adjust (schematronOnly, second, valid).getErrorList ().size ());
+  }
+}
@@ -0,0 +1,48 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.helger.json.serialize.JsonReader;
+
+class BulkValidationRunnerTest
+{
+  private static final String RULE = "eu.peppol.bis3:invoice:2024.11";
+
+  @Test
+  void resumedRunOnlyValidatesDocumentsMissingFromOutput (@TempDir final Path tempDir) throws Exception
+  {
+    final Path input = Files.createDirectories (tempDir.resolve ("in/2024"));
+    Files.writeString (input.resolve ("a.xml"), "<Invoice xmlns='urn:oasis:names:specification:ubl:schema:xsd:Invoice-2'/>");
+    Files.writeString (input.resolve ("b.xml"), "<html>Bad Gateway</html>");
+    Files.writeString (input.resolve ("ignored.txt"), "not a document");
+    final Path output = tempDir.resolve ("results.jsonl");
+
+    assertEquals (0, BulkValidationRunner.run (RULE, tempDir.resolve ("in"), output, 2, false));
+    List<String> lines = Files.readAllLines (output, StandardCharsets.UTF_8);
+    assertEquals (2, lines.size ());
+
+    // Simulate an interrupted run: a truncated last line and one more document
+    Files.writeString (output, lines.get (0) + "\n" + lines.get (1).substring (0, 20), StandardCharsets.UTF_8);
+    Files.writeString (input.resolve ("c.xml"), "<Invoice xmlns='urn:oasis:names:specification:ubl:schema:xsd:Invoice-2'/>");
+
+    assertEquals (0, BulkValidationRunner.run (RULE, tempDir.resolve ("in"), output, 2, true));
+    lines = Files.readAllLines (output, StandardCharsets.UTF_8);
+    // The truncated line is removed, not kept next to its replacement
+    assertEquals (3, lines.size ());
+    for (final String line : lines)
+      assertNotNull (JsonReader.readFromString (line), line);
+    final String resumed = String.join ("\n", lines.subList (1, 3));
+    assertTrue (resumed.contains ("\"id\":\"2024/c.xml\""));
+    assertTrue (resumed.contains ("\"id\":\"2024/" + (lines.get (0).contains ("a.xml") ? "b.xml" : "a.xml") + "\""));
+  }
+}
@@ -0,0 +1,147 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import com.helger.diver.api.coord.DVRCoordinate;
+import com.helger.io.resource.FileSystemResource;
+import com.helger.io.resource.URLResource;
+import com.helger.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.executorset.status.ValidationExecutorSetStatus;
+import com.helger.phive.xml.source.IValidationSourceXML;
+import com.helger.phive.xml.xsd.ValidationExecutorXSD;
+
+class DocumentPreflightTest
+{
+  private static final String XSD = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:test:invoice'>" +
+                                    "<xs:element name='Invoice' type='xs:string'/>" +
+                                    "</xs:schema>";
+
+  private final IValidationExecutorSet<IValidationSourceXML> executors = ValidationExecutorSet.create (DVRCoordinate.parseOrNull ("com.test:invoice:1"),
+                                                                                                      "Test invoice",
+                                                                                                      ValidationExecutorSetStatus.createValidNow (),
+                                                                                                      ValidationExecutorXSD.create (new ReadableResourceByteArray ("invoice.xsd",
+                                                                                                                                                                   XSD.getBytes (StandardCharsets.UTF_8),
+                                                                                                                                                                   false)));
+
+  private final DocumentPreflight preflight = new DocumentPreflight (LoggerFactory.getLogger (DocumentPreflightTest.class), 1024, 3);
+
+  private DocumentPreflight.Failure check (final byte [] content)
+  {
+    return check (content, executors);
+  }
+
+  private DocumentPreflight.Failure check (final byte [] content, final IValidationExecutorSet<IValidationSourceXML> executors)
+  {
+    return preflight.check (new ReadableResourceByteArray ("doc.xml", content, false), executors);
+  }
+
+  private static IValidationExecutorSet<IValidationSourceXML> executorSet (final ValidationExecutorXSD xsd)
+  {
+    return ValidationExecutorSet.create (DVRCoordinate.parseOrNull ("com.test:invoice:1"), "Test invoice", ValidationExecutorSetStatus.createValidNow (), xsd);
+  }
+
+  private DocumentPreflight.Failure check (final String content)
+  {
+    return check (content.getBytes (StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void matchingDocumentPasses ()
+  {
+    assertNull (check ("<?xml version='1.0' encoding='UTF-8'?><Invoice xmlns='urn:test:invoice'>ok</Invoice>"));
+  }
+
+  @Test
+  void mismatchingDocumentsAreRejectedWithTheFailedCheck ()
+  {
+    assertEquals (DocumentPreflight.CHECK_ROOT_ELEMENT, check ("<CrossIndustryInvoice xmlns='urn:test:cii'/>").getCheck ());
+    assertEquals (DocumentPreflight.CHECK_ROOT_ELEMENT, check ("<html><body>Bad Gateway</html>").getCheck ());
+    assertEquals (DocumentPreflight.CHECK_WELL_FORMED, check ("<Invoice xmlns='urn:test:invoice'><a></Invoice>").getCheck ());
+    assertEquals (DocumentPreflight.CHECK_WELL_FORMED, check ("<Invoice xmlns='urn:test:invoice'>trunc").getCheck ());
+    assertEquals (DocumentPreflight.CHECK_DEPTH, check ("<Invoice xmlns='urn:test:invoice'><a><b><c/></b></a></Invoice>").getCheck ());
+    assertEquals (DocumentPreflight.CHECK_SIZE, check ("<Invoice xmlns='urn:test:invoice'>" + "x".repeat (2048) + "</Invoice>").getCheck ());
+
+    final byte [] latin1 = "<?xml version='1.0' encoding='UTF-8'?><Invoice xmlns='urn:test:invoice'>Müller</Invoice>".getBytes (StandardCharsets.ISO_8859_1);
+    assertEquals (DocumentPreflight.CHECK_ENCODING, check (latin1).getCheck ());
+  }
+
+  @Test
+  void rootElementsOfIncludedAndImportedSchemasAreAccepted (@TempDir final Path dir) throws IOException
+  {
+    Files.createDirectories (dir.resolve ("common"));
+    Files.writeString (dir.resolve ("main.xsd"),
+                       "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:test:invoice'>" +
+                                                 "<xs:include schemaLocation='common/credit-note.xsd'/>" +
+                                                 "<xs:import namespace='urn:test:common' schemaLocation='common/party.xsd'/>" +
+                                                 "<xs:element name='Invoice' type='xs:string'/>" +
+                                                 "</xs:schema>");
+    // Chameleon include: takes the namespace of the including schema
+    Files.writeString (dir.resolve ("common/credit-note.xsd"),
+                       "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'><xs:element name='CreditNote' type='xs:string'/></xs:schema>");
+    Files.writeString (dir.resolve ("common/party.xsd"),
+                       "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:test:common'>" +
+                                                         "<xs:include schemaLocation='../main.xsd'/>" +
+                                                         "<xs:element name='Party' type='xs:string'/>" +
+                                                         "</xs:schema>");
+    final IValidationExecutorSet<IValidationSourceXML> included = executorSet (ValidationExecutorXSD.create (new FileSystemResource (dir.resolve ("main.xsd")
+                                                                                                                                             .toFile ())));
+
+    assertNull (check ("<Invoice xmlns='urn:test:invoice'/>".getBytes (StandardCharsets.UTF_8), included));
+    assertNull (check ("<CreditNote xmlns='urn:test:invoice'/>".getBytes (StandardCharsets.UTF_8), included));
+    assertNull (check ("<Party xmlns='urn:test:common'/>".getBytes (StandardCharsets.UTF_8), included));
+    assertEquals (DocumentPreflight.CHECK_ROOT_ELEMENT,
+                  check ("<Order xmlns='urn:test:invoice'/>".getBytes (StandardCharsets.UTF_8), included).getCheck ());
+
+    // The location cannot be resolved without a URL, so the root is not checked
+    final String unresolvable = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:test:invoice'>" +
+                                "<xs:include schemaLocation='credit-note.xsd'/>" +
+                                "<xs:element name='Invoice' type='xs:string'/>" +
+                                "</xs:schema>";
+    assertNull (check ("<CreditNote xmlns='urn:test:invoice'/>".getBytes (StandardCharsets.UTF_8),
+                       executorSet (ValidationExecutorXSD.create (new ReadableResourceByteArray ("main.xsd",
+                                                                                                 unresolvable.getBytes (StandardCharsets.UTF_8),
+                                                                                                 false)))));
+  }
+
+  @Test
+  void locationsInsideJarsAreResolvedAgainstTheEntry (@TempDir final Path dir) throws Exception
+  {
+    final Path jar = dir.resolve ("rules.jar");
+    try (final OutputStream out = Files.newOutputStream (jar); final JarOutputStream jarOut = new JarOutputStream (out))
+    {
+      jarOut.putNextEntry (new JarEntry ("xsd/main.xsd"));
+      jarOut.write (("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:test:invoice'>" +
+                     "<xs:include schemaLocation='common/credit-note.xsd'/>" +
+                     "<xs:element name='Invoice' type='xs:string'/>" +
+                     "</xs:schema>").getBytes (StandardCharsets.UTF_8));
+      jarOut.putNextEntry (new JarEntry ("xsd/common/credit-note.xsd"));
+      jarOut.write ("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'><xs:element name='CreditNote' type='xs:string'/></xs:schema>".getBytes (StandardCharsets.UTF_8));
+    }
+    final URL main = URI.create ("jar:" + jar.toUri () + "!/xsd/main.xsd").toURL ();
+    assertEquals ("jar:" + jar.toUri () + "!/xsd/common/credit-note.xsd",
+                  DocumentPreflight.resolve (main, "common/credit-note.xsd").toExternalForm ());
+    assertEquals ("jar:" + jar.toUri () + "!/main.xsd", DocumentPreflight.resolve (main, "../main.xsd").toExternalForm ());
+
+    final IValidationExecutorSet<IValidationSourceXML> inJar = executorSet (ValidationExecutorXSD.create (new URLResource (main)));
+    assertNull (check ("<CreditNote xmlns='urn:test:invoice'/>".getBytes (StandardCharsets.UTF_8), inJar));
+    assertEquals (DocumentPreflight.CHECK_ROOT_ELEMENT,
+                  check ("<Order xmlns='urn:test:invoice'/>".getBytes (StandardCharsets.UTF_8), inJar).getCheck ());
+  }
+}
@@ -0,0 +1,142 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import com.helger.diagnostics.error.list.ErrorList;
+import com.helger.diver.api.coord.DVRCoordinate;
+import com.helger.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.json.IJsonArray;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.phive.api.EValidationType;
+import com.helger.phive.api.artefact.ValidationArtefact;
+import com.helger.phive.api.executor.AbstractValidationExecutor;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSet;
+import com.helger.phive.api.executorset.status.ValidationExecutorSetStatus;
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.result.json.PhiveJsonHelper;
+import com.helger.phive.xml.source.IValidationSourceXML;
+import com.helger.phive.xml.source.ValidationSourceXML;
+import com.helger.phive.xml.xsd.ValidationExecutorXSD;
+
+class DocumentValidatorTest
+{
+  private static final String XSD = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:test:invoice'>" +
+                                    "<xs:element name='Invoice' type='xs:string'/>" +
+                                    "</xs:schema>";
+  private static final String DOCUMENT = "<Invoice xmlns='urn:test:invoice'>ok</Invoice>";
+
+  /** A Schematron-like layer that runs the given action while it validates. */
+  private static final class Layer extends AbstractValidationExecutor<IValidationSourceXML, Layer>
+  {
+    private final String name;
+    private final Runnable action;
+
+    Layer (final String name, final Runnable action)
+    {
+      super (new ValidationArtefact (EValidationType.SCHEMATRON_PURE,
+                                     new ReadableResourceByteArray (name, new byte [0], false)));
+      this.name = name;
+      this.action = action;
+    }
+
+    @Override
+    public ValidationResult applyValidation (final IValidationSourceXML source, final Locale locale)
+    {
+      action.run ();
+      return createValidationResult (new ErrorList (), 0);
+    }
+
+    @Override
+    public Layer getClone ()
+    {
+      return new Layer (name, action);
+    }
+  }
+
+  private final ValidationExecutorXSD xsd = ValidationExecutorXSD.create (new ReadableResourceByteArray ("invoice.xsd",
+                                                                                                        XSD.getBytes (StandardCharsets.UTF_8),
+                                                                                                        false));
+
+  private static IValidationExecutorSet<IValidationSourceXML> executorSet (final ValidationExecutorXSD xsd,
+                                                                           final Layer second,
+                                                                           final Layer third)
+  {
+    final ValidationExecutorSet<IValidationSourceXML> ret = new ValidationExecutorSet<> (DVRCoordinate.parseOrNull ("com.test:invoice:1"),
+                                                                                         "Test invoice",
+                                                                                         ValidationExecutorSetStatus.createValidNow ());
+    ret.addExecutor (xsd);
+    ret.addExecutor (second);
+    ret.addExecutor (third);
+    return ret;
+  }
+
+  private static void assertSkipped (final IJsonObject response, final boolean... expected)
+  {
+    final IJsonArray results = response.getAsArray ("results");
+    assertEquals (expected.length, results.size ());
+    for (int i = 0; i < expected.length; i++)
+      assertEquals (expected[i], results.get (i).getAsObject ().getAsBoolean ("skipped"), "layer " + i);
+    assertTrue (response.getAsBoolean (DocumentValidator.JSON_TIMEOUT));
+    assertFalse (response.getAsBoolean (PhiveJsonHelper.JSON_SUCCESS));
+  }
+
+  @Test
+  void layersAfterTheBudgetIsCancelledAreSkipped ()
+  {
+    final ValidationBudget budget = new ValidationBudget (System.nanoTime (), 60_000);
+    // The caller gives up while the second layer runs
+    final IValidationExecutorSet<IValidationSourceXML> executors = executorSet (xsd,
+                                                                               new Layer ("slow.sch", budget::cancel),
+                                                                               new Layer ("late.sch", () -> {
+                                                                                 throw new AssertionError ("Layer must not run after the budget is exhausted");
+                                                                               }));
+
+    final IJsonObject response = new JsonObject ();
+    new DocumentValidator (LoggerFactory.getLogger (DocumentValidatorTest.class)).validate (response,
+                                                                                            System.nanoTime (),
+                                                                                            "com.test:invoice:1",
+                                                                                            executors,
+                                                                                            new ReadableResourceByteArray ("doc.xml",
+                                                                                                                           DOCUMENT.getBytes (StandardCharsets.UTF_8),
+                                                                                                                           false),
+                                                                                            "doc.xml",
+                                                                                            budget);
+
+    assertSkipped (response, false, false, true);
+    assertEquals (2, budget.getCompletedResults ().size ());
+  }
+
+  @Test
+  void timeoutResponseKeepsTheLayersCompletedInTime ()
+  {
+    final ValidationBudget budget = new ValidationBudget (System.nanoTime (), 60_000);
+    budget.recordCompleted (xsd.applyValidation (ValidationSourceXML.create (new ReadableResourceByteArray ("doc.xml",
+                                                                                                            DOCUMENT.getBytes (StandardCharsets.UTF_8),
+                                                                                                            false)),
+                                                 Locale.US));
+    budget.cancel ();
+    final IValidationExecutorSet<IValidationSourceXML> executors = executorSet (xsd, new Layer ("slow.sch", () -> {}), new Layer ("late.sch", () -> {}));
+
+    final IJsonObject response = new JsonObject ();
+    new DocumentValidator (LoggerFactory.getLogger (DocumentValidatorTest.class)).applyTimeout (response,
+                                                                                                System.nanoTime (),
+                                                                                                "com.test:invoice:1",
+                                                                                                executors,
+                                                                                                "doc.xml",
+                                                                                                budget);
+
+    assertSkipped (response, false, true, true);
+    assertEquals ("doc.xml", response.getAsString ("fileName"));
+    assertEquals (60_000, response.getAsInt ("timeoutMs"));
+  }
+}
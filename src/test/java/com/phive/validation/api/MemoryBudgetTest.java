@@ -0,0 +1,81 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import com.helger.json.IJsonObject;
+
+class MemoryBudgetTest
+{
+  private static final long MB = 1024L * 1024L;
+
+  @Test
+  void requestsBeyondTheBudgetAreDeferredAndLearnedFrom () throws Exception
+  {
+    final MemoryBudget budget = new MemoryBudget (LoggerFactory.getLogger (MemoryBudgetTest.class), 50 * MB, 100);
+    // Learning needs the allocation of the worker thread
+    assumeTrue (budget.buildStatusResponse ().getAsBoolean ("allocationMeasured"));
+    final long estimate = budget.estimate ("rule", 100_000);
+
+    // Larger than the whole budget, but admitted while nothing else runs
+    final MemoryBudget.Reservation first = budget.reserve ("rule", 100_000, "interactive", 0);
+    assertEquals (estimate, first.getEstimatedBytes ());
+    assertThrows (ValidationLane.RejectedException.class, () -> budget.reserve ("rule", 100_000, "interactive", 20));
+
+    final CompletableFuture<MemoryBudget.Reservation> deferred = CompletableFuture.supplyAsync ( () -> {
+      try
+      {
+        return budget.reserve ("rule", 100_000, "interactive", 10_000);
+      }
+      catch (final Exception ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+    });
+    // The rejected request above was deferred once already
+    assertTimeoutPreemptively (Duration.ofSeconds (10), () -> {
+      while (budget.buildStatusResponse ().getAsInt ("deferred") < 2)
+        Thread.sleep (5);
+    });
+    first.start ();
+    final byte [] [] garbage = new byte [16] [];
+    for (int i = 0; i < garbage.length; i++)
+      garbage[i] = new byte [1024 * 1024];
+    first.finish (true);
+    deferred.get (10, TimeUnit.SECONDS).releaseIfNotStarted ();
+
+    final IJsonObject status = budget.buildStatusResponse ();
+    assertEquals (0, status.getAsInt ("reservedBytes"));
+    assertEquals (1, status.getAsInt ("rejected"));
+    assertEquals (2, status.getAsInt ("deferred"));
+    final IJsonObject rule = status.getAsObject ("rules").getAsObject ("rule");
+    assertEquals (1, rule.getAsInt ("samples"));
+    assertTrue (budget.estimate ("rule", 100_000) < estimate);
+  }
+
+  @Test
+  void bulkRequestsCannotTakeTheInteractiveShare () throws Exception
+  {
+    final long estimate = new MemoryBudget (LoggerFactory.getLogger (MemoryBudgetTest.class), 0, 100).estimate ("rule", 10_000);
+    final MemoryBudget budget = new MemoryBudget (LoggerFactory.getLogger (MemoryBudgetTest.class), 3 * estimate, 50);
+
+    final MemoryBudget.Reservation bulk = budget.reserve ("rule", 10_000, ValidationLanes.LANE_BULK, 0);
+    assertThrows (ValidationLane.RejectedException.class, () -> budget.reserve ("rule", 10_000, ValidationLanes.LANE_BULK, 0));
+    budget.reserve ("rule", 10_000, "interactive", 0);
+    budget.reserve ("rule", 10_000, "interactive", 0);
+    assertThrows (ValidationLane.RejectedException.class, () -> budget.reserve ("rule", 10_000, "interactive", 0));
+
+    bulk.releaseIfNotStarted ();
+    assertEquals (0, budget.buildStatusResponse ().getAsInt ("bulkReservedBytes"));
+  }
+}
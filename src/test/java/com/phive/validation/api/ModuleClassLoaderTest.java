@@ -0,0 +1,106 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+class ModuleClassLoaderTest
+{
+  static final String RESOURCE = "phive-test/rule.txt";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (ModuleClassLoaderTest.class);
+
+  static File writeJar (final File dir, final String name, final String content) throws IOException
+  {
+    dir.mkdirs ();
+    final File jar = new File (dir, name);
+    try (JarOutputStream output = new JarOutputStream (new FileOutputStream (jar)))
+    {
+      output.putNextEntry (new JarEntry (RESOURCE));
+      output.write (content.getBytes (StandardCharsets.UTF_8));
+      output.closeEntry ();
+    }
+    return jar;
+  }
+
+  private static String read (final URL url) throws IOException
+  {
+    try (InputStream input = url.openStream ())
+    {
+      return new String (input.readAllBytes (), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  void moduleResourcesComeBeforeTheParentOnes (@TempDir final Path tempDir) throws Exception
+  {
+    final File parentJar = writeJar (tempDir.resolve ("parent").toFile (), "bundled.jar", "bundled");
+    writeJar (tempDir.resolve ("modules").toFile (), "module.jar", "module");
+
+    try (URLClassLoader parent = new URLClassLoader (new URL [] { parentJar.toURI ().toURL () }, null))
+    {
+      assertSame (parent, ModuleClassLoader.createOrParent (tempDir.resolve ("missing").toString (), parent, LOGGER));
+
+      final ClassLoader loader = ModuleClassLoader.createOrParent (tempDir.resolve ("modules").toString (), parent, LOGGER);
+      try
+      {
+        assertEquals ("module", read (loader.getResource (RESOURCE)));
+        final List<URL> all = Collections.list (loader.getResources (RESOURCE));
+        assertEquals (2, all.size ());
+        assertEquals ("module", read (all.get (0)));
+        assertEquals ("bundled", read (all.get (1)));
+      }
+      finally
+      {
+        assertTrue (loader instanceof ModuleClassLoader);
+        ((ModuleClassLoader) loader).close ();
+      }
+    }
+  }
+
+  @Test
+  void everyLoaderReadsItsOwnCopyOfTheJars (@TempDir final Path tempDir) throws Exception
+  {
+    final File modules = tempDir.resolve ("modules").toFile ();
+    writeJar (modules, "module.jar", "old");
+    final ModuleClassLoader first = (ModuleClassLoader) ModuleClassLoader.createOrParent (modules.toString (), null, LOGGER);
+    try
+    {
+      final URL firstUrl = first.getResource (RESOURCE);
+      // Replaced in place while the first loader is still in use
+      writeJar (modules, "module.jar", "new");
+      try (ModuleClassLoader second = (ModuleClassLoader) ModuleClassLoader.createOrParent (modules.toString (), null, LOGGER))
+      {
+        assertEquals ("old", read (firstUrl));
+        assertEquals ("new", read (second.getResource (RESOURCE)));
+        assertNotEquals (firstUrl.toExternalForm (), second.getResource (RESOURCE).toExternalForm ());
+      }
+    }
+    finally
+    {
+      first.close ();
+    }
+    assertFalse (Files.exists (first.getCopyDirectory ()));
+  }
+}
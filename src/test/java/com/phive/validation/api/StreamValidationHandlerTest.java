@@ -0,0 +1,137 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import com.helger.diver.api.coord.DVRCoordinate;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.xml.source.IValidationSourceXML;
+
+class StreamValidationHandlerTest
+{
+  private static final MemoryBudget MEMORY_BUDGET = new MemoryBudget (LoggerFactory.getLogger (StreamValidationHandlerTest.class), 0, 100);
+
+  private static ServletInputStream createInputStream (final String body)
+  {
+    final ByteArrayInputStream source = new ByteArrayInputStream (body.getBytes (StandardCharsets.UTF_8));
+    return new ServletInputStream ()
+    {
+      @Override
+      public int read ()
+      {
+        return source.read ();
+      }
+
+      @Override
+      public boolean isFinished ()
+      {
+        return source.available () == 0;
+      }
+
+      @Override
+      public boolean isReady ()
+      {
+        return true;
+      }
+
+      @Override
+      public void setReadListener (final ReadListener readListener)
+      {}
+    };
+  }
+
+  @Test
+  void everyLineProducesOneTaggedResultAndASummary () throws Exception
+  {
+    final HttpServletRequest request = mock (HttpServletRequest.class);
+    final HttpServletResponse response = mock (HttpServletResponse.class);
+    final StringWriter body = new StringWriter ();
+    when (request.getInputStream ()).thenReturn (createInputStream ("{\"id\":\"a-1\",\"rule\":\"x:y:1\",\"xml\":\"<a/>\"}\n" +
+                                                                    "\n" +
+                                                                    "not json\n" +
+                                                                    "{\"id\":\"a-2\",\"rule\":\"invalid\"}\n"));
+    when (response.getWriter ()).thenReturn (new PrintWriter (body));
+
+    final StreamValidationHandler handler = new StreamValidationHandler (LoggerFactory.getLogger (StreamValidationHandlerTest.class), MEMORY_BUDGET);
+    final ValidationLane lane = new ValidationLane ("test", 2, 4, 1000);
+    handler.handleStreamRequest (request, response, new ValidationExecutorSetRegistry<> (), lane);
+
+    final String [] lines = body.toString ().split ("\n");
+    assertEquals (4, lines.length);
+    final String output = body.toString ();
+    assertTrue (output.contains ("\"id\":\"a-1\""));
+    assertTrue (output.contains ("Rule not found: 'x:y:1'"));
+    assertTrue (output.contains ("\"id\":\"a-2\""));
+    assertTrue (output.contains ("Invalid rule format: 'invalid'"));
+    assertTrue (output.contains ("is not a JSON object") && output.contains ("\"line\":3"));
+    assertTrue (lines[3].contains ("\"summary\"") && lines[3].contains ("\"received\":3"));
+  }
+
+  @Test
+  void errorInAWorkerDoesNotBlockTheStream () throws Exception
+  {
+    final HttpServletRequest request = mock (HttpServletRequest.class);
+    final HttpServletResponse response = mock (HttpServletResponse.class);
+    final StringWriter body = new StringWriter ();
+    when (request.getInputStream ()).thenReturn (createInputStream ("{\"id\":\"a-1\",\"rule\":\"x:y:1\",\"xml\":\"<a/>\"}\n"));
+    when (response.getWriter ()).thenReturn (new PrintWriter (body));
+    final ValidationExecutorSetRegistry<IValidationSourceXML> registry = new ValidationExecutorSetRegistry<> ()
+    {
+      @Override
+      public IValidationExecutorSet<IValidationSourceXML> getOfID (final DVRCoordinate id)
+      {
+        throw new StackOverflowError ("simulated");
+      }
+    };
+
+    final StreamValidationHandler handler = new StreamValidationHandler (LoggerFactory.getLogger (StreamValidationHandlerTest.class), MEMORY_BUDGET);
+    final ValidationLane lane = new ValidationLane ("test", 1, 4, 1000);
+    assertTimeoutPreemptively (Duration.ofSeconds (10), () -> handler.handleStreamRequest (request, response, registry, lane));
+
+    final String [] lines = body.toString ().split ("\n");
+    assertEquals (2, lines.length);
+    assertTrue (lines[0].contains ("\"id\":\"a-1\""));
+    assertTrue (lines[1].contains ("\"received\":1") && lines[1].contains ("\"invalid\":1"));
+  }
+
+  @Test
+  void failedHandOverReleasesItsPermit () throws Exception
+  {
+    final HttpServletRequest request = mock (HttpServletRequest.class);
+    final HttpServletResponse response = mock (HttpServletResponse.class);
+    when (request.getInputStream ()).thenReturn (createInputStream ("{\"id\":\"a-1\",\"rule\":\"x:y:1\",\"xml\":\"<a/>\"}\n"));
+    when (response.getWriter ()).thenReturn (new PrintWriter (new StringWriter ()));
+    final ValidationLane lane = mock (ValidationLane.class);
+    doThrow (new IllegalStateException ("simulated")).when (lane).submit (any ());
+
+    final StreamValidationHandler handler = new StreamValidationHandler (LoggerFactory.getLogger (StreamValidationHandlerTest.class), MEMORY_BUDGET);
+    // Waiting for all permits at the end of the stream must not block
+    assertTimeoutPreemptively (Duration.ofSeconds (10),
+                               () -> assertThrows (IllegalStateException.class,
+                                                   () -> handler.handleStreamRequest (request,
+                                                                                      response,
+                                                                                      new ValidationExecutorSetRegistry<> (),
+                                                                                      lane)));
+  }
+}
@@ -0,0 +1,140 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class ValidationLaneTest
+{
+  @Test
+  void executeReturnsTaskResult () throws Exception
+  {
+    final ValidationLane lane = new ValidationLane ("test", 1, 1, 1000);
+    assertEquals ("done", lane.execute ( () -> "done"));
+  }
+
+  @Test
+  void taskNotStartedWithinQueueWaitIsRejectedAndNeverRuns () throws Exception
+  {
+    final ValidationLane lane = new ValidationLane ("test", 1, 4, 50);
+    final CountDownLatch blocking = new CountDownLatch (1);
+    final CountDownLatch running = new CountDownLatch (1);
+    final Thread blocker = new Thread ( () -> {
+      try
+      {
+        lane.execute ( () -> {
+          running.countDown ();
+          blocking.await ();
+          return null;
+        });
+      }
+      catch (final Exception ex)
+      {
+        // ignored
+      }
+    });
+    blocker.start ();
+    assertTrue (running.await (5, TimeUnit.SECONDS));
+
+    final AtomicBoolean lateTaskRan = new AtomicBoolean (false);
+    final ValidationLane.RejectedException ex = assertThrows (ValidationLane.RejectedException.class, () -> lane.execute ( () -> {
+      lateTaskRan.set (true);
+      return null;
+    }));
+    assertEquals ("test", ex.getLaneName ());
+
+    blocking.countDown ();
+    blocker.join (5000);
+    assertEquals ("after", lane.execute ( () -> "after"));
+    assertFalse (lateTaskRan.get ());
+  }
+
+  @Test
+  void taskExceedingBudgetTimesOutAndCancelsBudget () throws Exception
+  {
+    final ValidationLane lane = new ValidationLane ("test", 1, 1, 1000);
+    final ValidationBudget budget = new ValidationBudget (System.nanoTime (), 50);
+    final CountDownLatch blocking = new CountDownLatch (1);
+    assertThrows (TimeoutException.class, () -> lane.execute ( () -> {
+      blocking.await ();
+      return null;
+    }, budget));
+    assertTrue (budget.isExhausted ());
+    assertEquals ("after", lane.execute ( () -> "after"));
+  }
+
+  @Test
+  void workerIgnoringTheTimeoutIsReplacedAndReported () throws Exception
+  {
+    final ValidationLane lane = new ValidationLane ("test", 1, 1, 1000);
+    final CountDownLatch release = new CountDownLatch (1);
+    final CountDownLatch finished = new CountDownLatch (1);
+    assertThrows (TimeoutException.class, () -> lane.execute ( () -> {
+      // Like a running Schematron layer, keeps going despite the interrupt
+      while (release.getCount () > 0)
+        Thread.onSpinWait ();
+      finished.countDown ();
+      return null;
+    }, new ValidationBudget (System.nanoTime (), 50)));
+
+    assertEquals (1, lane.buildStatusResponse ().getAsInt ("abandoned"));
+    assertEquals ("replacement", lane.execute ( () -> "replacement"));
+
+    release.countDown ();
+    assertTrue (finished.await (5, TimeUnit.SECONDS));
+    final long deadline = System.nanoTime () + TimeUnit.SECONDS.toNanos (5);
+    while (lane.buildStatusResponse ().getAsInt ("abandoned") > 0 && System.nanoTime () < deadline)
+      Thread.sleep (5);
+    assertEquals (0, lane.buildStatusResponse ().getAsInt ("abandoned"));
+    assertEquals (1, lane.buildStatusResponse ().getAsInt ("abandonedTotal"));
+  }
+
+  @Test
+  void submitWaitsForQueueSpaceAndRejectsAfterTheMaximumWait () throws Exception
+  {
+    final ValidationLane lane = new ValidationLane ("test", 1, 1, 200);
+    final CountDownLatch blocking = new CountDownLatch (1);
+    final CountDownLatch running = new CountDownLatch (1);
+    lane.submit ( () -> {
+      running.countDown ();
+      try
+      {
+        blocking.await ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+    });
+    assertTrue (running.await (5, TimeUnit.SECONDS));
+    final CountDownLatch done = new CountDownLatch (2);
+    lane.submit (done::countDown);
+
+    // Queue full and the worker busy beyond the maximum wait
+    assertThrows (ValidationLane.RejectedException.class, () -> lane.submit (done::countDown));
+
+    // Queue space freed while waiting
+    final Thread release = new Thread ( () -> {
+      try
+      {
+        Thread.sleep (50);
+      }
+      catch (final InterruptedException ex)
+      {
+        // released right away
+      }
+      blocking.countDown ();
+    });
+    release.start ();
+    lane.submit (done::countDown);
+    assertTrue (done.await (5, TimeUnit.SECONDS));
+  }
+}
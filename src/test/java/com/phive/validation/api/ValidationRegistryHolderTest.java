@@ -0,0 +1,103 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.io.resource.IReadableResource;
+import com.helger.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.json.IJsonObject;
+import com.helger.xml.schema.XMLSchemaCache;
+
+class ValidationRegistryHolderTest
+{
+  @Test
+  void startupRunsInTheBackgroundAndReportsProgress () throws Exception
+  {
+    final ValidationRegistryHolder holder = new ValidationRegistryHolder (LoggerFactory.getLogger (ValidationRegistryHolderTest.class), false);
+    assertFalse (holder.isReady ());
+    assertNull (holder.current ());
+    assertEquals (ValidationRegistryHolder.PHASE_PENDING, holder.buildStartupStatus ().getAsString ("phase"));
+
+    assertTrue (holder.startInitialization ());
+    assertFalse (holder.startInitialization ());
+    // The startup counts as the running reload
+    assertFalse (holder.triggerReload ());
+
+    assertTrue (holder.awaitReady (2, TimeUnit.MINUTES));
+    final IJsonObject status = holder.buildStartupStatus ();
+    assertEquals (ValidationRegistryHolder.PHASE_READY, status.getAsString ("phase"));
+    assertTrue (status.getAsBoolean ("ready"));
+    assertTrue (status.getAsInt ("modulesTotal") > 0);
+    assertEquals (status.getAsInt ("modulesTotal"), status.getAsInt ("modulesLoaded"));
+    assertFalse (holder.current ().registry.getAll ().isEmpty ());
+  }
+
+  private static void awaitCondition (final BooleanSupplier condition) throws InterruptedException
+  {
+    final long deadline = System.nanoTime () + TimeUnit.MINUTES.toNanos (2);
+    while (!condition.getAsBoolean () && System.nanoTime () < deadline)
+      Thread.sleep (20);
+    assertTrue (condition.getAsBoolean ());
+  }
+
+  @Test
+  void reloadSwapsAtomicallyAndClosesTheOldLoaderOnceDrained (@TempDir final Path moduleDir) throws Exception
+  {
+    ModuleClassLoaderTest.writeJar (moduleDir.toFile (), "module.jar", "module");
+    final ValidationRegistryHolder holder = new ValidationRegistryHolder (LoggerFactory.getLogger (ValidationRegistryHolderTest.class),
+                                                                          false,
+                                                                          moduleDir.toString (),
+                                                                          false);
+    holder.initialize ();
+    final ValidationRegistryHolder.Snapshot first = holder.acquire ();
+    assertTrue (first.usesModuleDirectory ());
+    assertNotNull (first.classLoader.getResource (ModuleClassLoaderTest.RESOURCE));
+
+    final ICommonsList<IReadableResource> cached = new CommonsArrayList<> (new ReadableResourceByteArray ("cached.xsd",
+                                                                                                          "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'/>".getBytes (StandardCharsets.UTF_8),
+                                                                                                          false));
+    XMLSchemaCache.getInstance ().getSchema (cached);
+
+    assertTrue (holder.triggerReload ());
+    // The reload does not wait for the validation still running on the old registry
+    awaitCondition ( () -> !holder.isReloadRunning ());
+    final ValidationRegistryHolder.Snapshot second = holder.current ();
+    assertEquals (2, second.generation);
+    assertNotSame (first.registry, second.registry);
+    assertFalse (second.registry.getAll ().isEmpty ());
+    // Rules of each load have their own resource IDs, so the caches are kept
+    assertNotEquals (first.classLoader.getResource (ModuleClassLoaderTest.RESOURCE),
+                     second.classLoader.getResource (ModuleClassLoaderTest.RESOURCE));
+    assertTrue (XMLSchemaCache.getInstance ().isInCache (cached));
+
+    // The running validation keeps its registry and loader until it is done
+    assertFalse (first.isDrained ());
+    assertNotNull (first.classLoader.getResource (ModuleClassLoaderTest.RESOURCE));
+
+    first.release ();
+    assertTrue (first.isDrained ());
+    assertNull (((ModuleClassLoader) first.classLoader).findResource (ModuleClassLoaderTest.RESOURCE));
+    assertFalse (Files.exists (((ModuleClassLoader) first.classLoader).getCopyDirectory ()));
+    assertSame (second, holder.current ());
+    assertFalse (second.isDrained ());
+    assertNotNull (second.classLoader.getResource (ModuleClassLoaderTest.RESOURCE));
+  }
+}
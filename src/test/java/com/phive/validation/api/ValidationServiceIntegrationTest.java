@@ -6,14 +6,23 @@ import static org.mockito.Mockito.when;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 class ValidationServiceIntegrationTest
 {
+  @BeforeAll
+  static void startRegistry () throws Exception
+  {
+    new ValidationStartupListener ().contextInitialized (null);
+    assertTrue (ValidationService.awaitRegistry (2, TimeUnit.MINUTES));
+  }
+
   @Test
   void apiEndpointReturnsHealthPayload () throws Exception
   {
@@ -0,0 +1,118 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.helger.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.phive.api.executor.IValidationExecutor;
+import com.helger.phive.api.executorset.IValidationExecutorSet;
+import com.helger.phive.api.executorset.ValidationExecutorSetRegistry;
+import com.helger.phive.peppol.legacy.PeppolValidation2024_11;
+import com.helger.phive.xml.source.IValidationSourceXML;
+import com.helger.phive.xml.source.ValidationSourceXML;
+import com.helger.phive.xml.xsd.ValidationExecutorXSD;
+
+/**
+ * Compares the XSD layer of the Peppol BIS invoice with a validator per run
+ * and with pooled validators, on the calling thread. Not part of the regular
+ * build; run it with
+ * <code>mvn test -Dtest=XsdValidatorPoolBenchmarkTest -Dbenchmark=true</code>.
+ */
+@Tag ("benchmark")
+@EnabledIfSystemProperty (named = "benchmark", matches = "true")
+class XsdValidatorPoolBenchmarkTest
+{
+  private static final int WARMUP_RUNS = 5_000;
+  private static final int MEASURED_RUNS = 20_000;
+  private static final int INVOICE_LINES = 8;
+
+  private static String createInvoice ()
+  {
+    final StringBuilder xml = new StringBuilder ();
+    xml.append ("<Invoice xmlns='urn:oasis:names:specification:ubl:schema:xsd:Invoice-2'")
+       .append (" xmlns:cac='urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2'")
+       .append (" xmlns:cbc='urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2'>")
+       .append ("<cbc:CustomizationID>urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0</cbc:CustomizationID>")
+       .append ("<cbc:ProfileID>urn:fdc:peppol.eu:2017:poacc:billing:01:1.0</cbc:ProfileID>")
+       .append ("<cbc:ID>INV-2024-0001</cbc:ID><cbc:IssueDate>2024-11-15</cbc:IssueDate><cbc:DueDate>2024-12-15</cbc:DueDate>")
+       .append ("<cbc:InvoiceTypeCode>380</cbc:InvoiceTypeCode><cbc:DocumentCurrencyCode>EUR</cbc:DocumentCurrencyCode>")
+       .append ("<cbc:BuyerReference>PO-4711</cbc:BuyerReference>")
+       .append ("<cac:AccountingSupplierParty><cac:Party><cbc:EndpointID schemeID='0088'>7300010000001</cbc:EndpointID>")
+       .append ("<cac:PostalAddress><cbc:StreetName>Main Street 1</cbc:StreetName><cbc:CityName>Stockholm</cbc:CityName>")
+       .append ("<cbc:PostalZone>11122</cbc:PostalZone><cac:Country><cbc:IdentificationCode>SE</cbc:IdentificationCode></cac:Country></cac:PostalAddress>")
+       .append ("<cac:PartyLegalEntity><cbc:RegistrationName>Seller AB</cbc:RegistrationName></cac:PartyLegalEntity></cac:Party></cac:AccountingSupplierParty>")
+       .append ("<cac:AccountingCustomerParty><cac:Party><cbc:EndpointID schemeID='0002'>4217:2323:2323</cbc:EndpointID>")
+       .append ("<cac:PostalAddress><cbc:StreetName>Harbour Road 9</cbc:StreetName><cbc:CityName>Paris</cbc:CityName>")
+       .append ("<cbc:PostalZone>75001</cbc:PostalZone><cac:Country><cbc:IdentificationCode>FR</cbc:IdentificationCode></cac:Country></cac:PostalAddress>")
+       .append ("<cac:PartyLegalEntity><cbc:RegistrationName>Buyer SA</cbc:RegistrationName></cac:PartyLegalEntity></cac:Party></cac:AccountingCustomerParty>")
+       .append ("<cac:TaxTotal><cbc:TaxAmount currencyID='EUR'>200.00</cbc:TaxAmount></cac:TaxTotal>")
+       .append ("<cac:LegalMonetaryTotal><cbc:LineExtensionAmount currencyID='EUR'>800.00</cbc:LineExtensionAmount>")
+       .append ("<cbc:TaxExclusiveAmount currencyID='EUR'>800.00</cbc:TaxExclusiveAmount>")
+       .append ("<cbc:TaxInclusiveAmount currencyID='EUR'>1000.00</cbc:TaxInclusiveAmount>")
+       .append ("<cbc:PayableAmount currencyID='EUR'>1000.00</cbc:PayableAmount></cac:LegalMonetaryTotal>");
+    for (int i = 1; i <= INVOICE_LINES; i++)
+      xml.append ("<cac:InvoiceLine><cbc:ID>")
+         .append (i)
+         .append ("</cbc:ID><cbc:InvoicedQuantity unitCode='C62'>10</cbc:InvoicedQuantity>")
+         .append ("<cbc:LineExtensionAmount currencyID='EUR'>100.00</cbc:LineExtensionAmount>")
+         .append ("<cac:Item><cbc:Name>Article ")
+         .append (i)
+         .append ("</cbc:Name><cac:ClassifiedTaxCategory><cbc:ID>S</cbc:ID><cbc:Percent>25</cbc:Percent>")
+         .append ("<cac:TaxScheme><cbc:ID>VAT</cbc:ID></cac:TaxScheme></cac:ClassifiedTaxCategory></cac:Item>")
+         .append ("<cac:Price><cbc:PriceAmount currencyID='EUR'>10.00</cbc:PriceAmount></cac:Price></cac:InvoiceLine>");
+    return xml.append ("</Invoice>").toString ();
+  }
+
+  private static ValidationExecutorXSD getInvoiceSchema ()
+  {
+    final ValidationExecutorSetRegistry<IValidationSourceXML> registry = new ValidationExecutorSetRegistry<> ();
+    PeppolValidation2024_11.init (registry);
+    final IValidationExecutorSet<IValidationSourceXML> executors = registry.getOfID (PeppolValidation2024_11.VID_OPENPEPPOL_INVOICE_UBL_V3);
+    assertNotNull (executors);
+    for (final IValidationExecutor<IValidationSourceXML> executor : executors.getAllExecutors ())
+      if (executor instanceof ValidationExecutorXSD)
+        return (ValidationExecutorXSD) executor;
+    throw new IllegalStateException ("No XSD layer in " + executors.getID ());
+  }
+
+  @Test
+  void pooledValidatorsAgainstAValidatorPerRun ()
+  {
+    final ValidationExecutorXSD executor = getInvoiceSchema ();
+    final XsdValidatorPool pool = new XsdValidatorPool (1);
+    final byte [] invoice = createInvoice ().getBytes (StandardCharsets.UTF_8);
+    final IValidationSourceXML source = ValidationSourceXML.create (new ReadableResourceByteArray ("invoice.xml", invoice, false));
+    assertEquals (executor.applyValidation (source, Locale.US).getErrorList ().size (),
+                  pool.applyValidation (executor, source, Locale.US).getErrorList ().size ());
+
+    for (int i = 0; i < WARMUP_RUNS; i++)
+    {
+      executor.applyValidation (source, Locale.US);
+      pool.applyValidation (executor, source, Locale.US);
+    }
+
+    long start = System.nanoTime ();
+    for (int i = 0; i < MEASURED_RUNS; i++)
+      executor.applyValidation (source, Locale.US);
+    final double perRunDocsPerSecond = MEASURED_RUNS * 1e9 / (System.nanoTime () - start);
+
+    start = System.nanoTime ();
+    for (int i = 0; i < MEASURED_RUNS; i++)
+      pool.applyValidation (executor, source, Locale.US);
+    final double pooledDocsPerSecond = MEASURED_RUNS * 1e9 / (System.nanoTime () - start);
+
+    System.out.printf (Locale.US,
+                       "XSD layer, %d byte invoice, %d runs: validator per run %.0f docs/s, pooled %.0f docs/s%n",
+                       Integer.valueOf (invoice.length),
+                       Integer.valueOf (MEASURED_RUNS),
+                       Double.valueOf (perRunDocsPerSecond),
+                       Double.valueOf (pooledDocsPerSecond));
+  }
+}
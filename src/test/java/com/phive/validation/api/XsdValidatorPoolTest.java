@@ -0,0 +1,48 @@
+package com.phive.validation.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+import com.helger.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.phive.api.result.ValidationResult;
+import com.helger.phive.xml.source.IValidationSourceXML;
+import com.helger.phive.xml.source.ValidationSourceXML;
+import com.helger.phive.xml.xsd.ValidationExecutorXSD;
+
+class XsdValidatorPoolTest
+{
+  private static final String XSD = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:test:invoice'>" +
+                                    "<xs:element name='Invoice' type='xs:int'/>" +
+                                    "</xs:schema>";
+
+  private final ValidationExecutorXSD executor = ValidationExecutorXSD.create (new ReadableResourceByteArray ("invoice.xsd",
+                                                                                                             XSD.getBytes (StandardCharsets.UTF_8),
+                                                                                                             false));
+
+  private static IValidationSourceXML source (final String xml)
+  {
+    return ValidationSourceXML.create (new ReadableResourceByteArray ("doc.xml", xml.getBytes (StandardCharsets.UTF_8), false));
+  }
+
+  @Test
+  void reusedValidatorsReportTheSameErrorsAsTheExecutor ()
+  {
+    final XsdValidatorPool pool = new XsdValidatorPool (1);
+    final String [] documents = { "<Invoice xmlns='urn:test:invoice'>abc</Invoice>",
+                                  "<Invoice xmlns='urn:test:invoice'>42</Invoice>",
+                                  "<Invoice xmlns='urn:test:invoice'>",
+                                  "<Invoice xmlns='urn:test:invoice'>7</Invoice>" };
+    for (final String document : documents)
+    {
+      final ValidationResult expected = executor.applyValidation (source (document), Locale.US);
+      final ValidationResult actual = pool.applyValidation (executor, source (document), Locale.US);
+      assertEquals (expected.getErrorList ().size (), actual.getErrorList ().size (), document);
+      for (int i = 0; i < expected.getErrorList ().size (); i++)
+        assertEquals (expected.getErrorList ().get (i).getAsString (Locale.US), actual.getErrorList ().get (i).getAsString (Locale.US));
+    }
+  }
+}